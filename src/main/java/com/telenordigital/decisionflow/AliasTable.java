@@ -0,0 +1,64 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Random;
+
+/**
+ * Draws indices with probabilities proportional to the given weights in constant time
+ * (Vose's variant of Walker's alias method).
+ */
+final class AliasTable {
+    final double[] probabilities;
+    final int[] aliases;
+
+    AliasTable(final double[] weights) {
+        final int n = weights.length;
+        double total = 0;
+        for (final double weight : weights) {
+            total += weight;
+        }
+        probabilities = new double[n];
+        aliases = new int[n];
+        final double[] scaled = new double[n];
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // whatever is left over is 1 up to rounding errors
+        while (largeCount > 0) {
+            probabilities[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probabilities[small[--smallCount]] = 1;
+        }
+    }
+
+    AliasTable(final double[] probabilities, final int[] aliases) {
+        this.probabilities = probabilities;
+        this.aliases = aliases;
+    }
+
+    int next(final Random random) {
+        final int column = random.nextInt(probabilities.length);
+        return (random.nextDouble() < probabilities[column]) ? column : aliases[column];
+    }
+}
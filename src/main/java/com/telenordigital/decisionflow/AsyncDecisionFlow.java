@@ -0,0 +1,136 @@
+package com.telenordigital.decisionflow;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs the calls of a decision machine on an executor. With a DecisionFlow, or a
+ * ReloadingDecisionFlow holding one, the walk checks its future before each node and stops
+ * once the future is done, be it cancelled or timed out; context methods already running are
+ * not interrupted. Other machines are only checked before they start.
+ */
+public final class AsyncDecisionFlow<C, P> implements AsyncDecisionMachine<C, P> {
+
+    private final DecisionMachine<C, P> machine;
+    private final Executor executor;
+
+    private AsyncDecisionFlow(final DecisionMachine<C, P> machine, final Executor executor) {
+        this.machine = machine;
+        this.executor = executor;
+    }
+
+    /**
+     * The executor runs whole walks, so with context methods that block it should have
+     * plenty of threads, e.g. a cached thread pool.
+     */
+    public static <C, P> AsyncDecisionMachine<C, P> getInstance(
+            final DecisionMachine<C, P> machine,
+            final Executor executor) {
+        return new AsyncDecisionFlow<>(machine, executor);
+    }
+
+    @Override
+    public CompletableFuture<Decision<P>> getDecisionAsync(final C context) {
+        return submit(
+                (flow, checkpoint) -> flow.getDecision(context, checkpoint),
+                current -> current.getDecision(context),
+                0, null);
+    }
+
+    @Override
+    public CompletableFuture<List<Decision<P>>> getDecisionsAsync(final C context) {
+        return submit(
+                (flow, checkpoint) -> flow.getDecisions(context, checkpoint),
+                current -> current.getDecisions(context),
+                0, null);
+    }
+
+    @Override
+    public CompletableFuture<Decision<P>> getDecisionAsync(
+            final C context,
+            final long timeout,
+            final TimeUnit unit) {
+        return submit(
+                (flow, checkpoint) -> flow.getDecision(context, checkpoint),
+                current -> current.getDecision(context),
+                timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<List<Decision<P>>> getDecisionsAsync(
+            final C context,
+            final long timeout,
+            final TimeUnit unit) {
+        return submit(
+                (flow, checkpoint) -> flow.getDecisions(context, checkpoint),
+                current -> current.getDecisions(context),
+                timeout, unit);
+    }
+
+    private <R> CompletableFuture<R> submit(
+            final BiFunction<DecisionFlow<C, P>, Checkpoint, R> checked,
+            final Function<DecisionMachine<C, P>, R> unchecked,
+            final long timeout,
+            final TimeUnit unit) {
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        if (unit != null) {
+            final ScheduledFuture<?> timer = Deadlines.TIMER.schedule(
+                    () -> future.completeExceptionally(new TimeoutException(String.format(
+                            "No decision within %d %s.", timeout, unit))),
+                    timeout, unit);
+            future.whenComplete((result, e) -> timer.cancel(false));
+        }
+        final Checkpoint checkpoint = node -> {
+            if (future.isDone()) {
+                throw new CancellationException();
+            }
+        };
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    final DecisionMachine<C, P> current = (machine instanceof ReloadingDecisionFlow)
+                            ? ((ReloadingDecisionFlow<C, P>) machine).getCurrent()
+                            : machine;
+                    future.complete((current instanceof DecisionFlow)
+                            ? checked.apply((DecisionFlow<C, P>) current, checkpoint)
+                            : unchecked.apply(current));
+                } catch (RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Times out the futures that have a deadline, on a single daemon thread started the first
+     * time it is needed.
+     */
+    private static final class Deadlines {
+        private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+        private static ScheduledThreadPoolExecutor createTimer() {
+            final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, "decision-flow-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.telenordigital.decisionflow;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A decision machine whose calls return at once. Cancelling a future, or letting its
+ * deadline pass, stops the walk over the flow before the next node.
+ */
+public interface AsyncDecisionMachine<C, P> {
+    CompletableFuture<Decision<P>> getDecisionAsync(C context);
+    CompletableFuture<List<Decision<P>>> getDecisionsAsync(C context);
+
+    /**
+     * Like getDecisionAsync(context), but the future fails with a TimeoutException if no
+     * decision is reached within the timeout.
+     */
+    CompletableFuture<Decision<P>> getDecisionAsync(C context, long timeout, TimeUnit unit);
+
+    CompletableFuture<List<Decision<P>>> getDecisionsAsync(
+            C context, long timeout, TimeUnit unit);
+}
@@ -0,0 +1,496 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import com.telenordigital.decisionflow.FlowGraph.Element;
+import com.telenordigital.decisionflow.FlowGraph.RandomSwitch;
+import com.telenordigital.decisionflow.FlowGraph.TargetAttributes;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.ExpressionParser;
+
+/**
+ * Writes a loaded flow to a file and reads it back without a describer. The file holds a
+ * string table, the node and arrow arrays of the graph, the literals of the flow already
+ * evaluated, target attributes already split into constants and expressions, and the
+ * tables of the random switches. Only the expressions that are not literals are parsed
+ * again when reading, since parsed SpEL can't be stored.
+ *
+ * <pre>
+ * int magic, short version, short reserved
+ * int stringCount, int[stringCount + 1] offsets, UTF-8 bytes
+ * int nodeCount, int arrowCount
+ * elements: byte type, byte flags, string id, name, expression, source, destination,
+ *     value attributes
+ * byte[] nodeKinds, int[] firstArrows, byte[] arrowKinds, int[] arrowDestinations
+ * nodes: targets and random switches as written by writeNode
+ * arrows: byte isConstant, value constant
+ * </pre>
+ *
+ * Strings are indices into the string table, -1 for null. Integers are big-endian.
+ * BigInteger and BigDecimal values are written as their decimal strings.
+ */
+final class BinaryFlowFormat {
+    static final int MAGIC = 0x44464c57; // "DFLW"
+    static final short VERSION = 1;
+
+    private static final byte DEFAULT_FLAG = 1;
+    private static final byte OBLIGATORY_FLAG = 2;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte BOOLEAN_VALUE = 2;
+    private static final byte INTEGER_VALUE = 3;
+    private static final byte LONG_VALUE = 4;
+    private static final byte FLOAT_VALUE = 5;
+    private static final byte DOUBLE_VALUE = 6;
+    private static final byte LIST_VALUE = 7;
+    private static final byte MAP_VALUE = 8;
+    private static final byte BIG_INTEGER_VALUE = 9;
+    private static final byte BIG_DECIMAL_VALUE = 10;
+
+    private BinaryFlowFormat() {
+    }
+
+    static void write(final FlowGraph graph, final Path path) {
+        final Writer writer = new Writer();
+        try {
+            writer.writeGraph(graph);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeShort(0);
+                writer.writeStrings(out);
+                writer.body.writeTo(out);
+            }
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not write flow.", e);
+        }
+    }
+
+    static FlowGraph read(
+            final Path path,
+            final ExpressionParser expressionParser,
+            final EvaluationContext evaluationContext) {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not read flow.", e);
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new DecisionFlowException("Not a binary decision flow.");
+            }
+            final short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new DecisionFlowException(String.format(
+                        "Unsupported binary flow version %d.", version));
+            }
+            buffer.getShort();
+            return new Reader(buffer, expressionParser, evaluationContext).readGraph();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException | NegativeArraySizeException | ClassCastException e) {
+            throw new DecisionFlowException("Corrupt binary flow.", e);
+        }
+    }
+
+    private static final class Writer {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(body);
+
+        private void writeGraph(final FlowGraph graph) throws IOException {
+            out.writeInt(graph.nodeCount);
+            out.writeInt(graph.arrowCount);
+            for (final Element element : graph.elements) {
+                out.writeByte(element.getType().ordinal());
+                out.writeByte((element.isDefault() ? DEFAULT_FLAG : 0)
+                        | (element.isObligatory() ? OBLIGATORY_FLAG : 0));
+                writeString(element.getId());
+                writeString(element.getName());
+                writeString(element.getExpression());
+                writeString(element.getSourceNodeId());
+                writeString(element.getDestinationNodeId());
+                writeValue(element.getAttributes());
+            }
+            out.write(graph.nodeKinds);
+            for (final int first : graph.firstArrows) {
+                out.writeInt(first);
+            }
+            out.write(graph.arrowKinds);
+            for (final int destination : graph.arrowDestinations) {
+                out.writeInt(destination);
+            }
+            for (int n = 0; n < graph.nodeCount; n++) {
+                writeNode(graph, n);
+            }
+            for (final ExpressionHolder holder : graph.arrowExpressions) {
+                writeConstant(holder);
+            }
+        }
+
+        private void writeNode(final FlowGraph graph, final int node) throws IOException {
+            switch (graph.nodeKinds[node]) {
+                case FlowGraph.TARGET:
+                    writeConstant(graph.nodeExpressions[node]);
+                    final TargetAttributes attributes = graph.targetAttributes[node];
+                    out.writeBoolean(attributes.constants != null);
+                    if (attributes.constants != null) {
+                        out.writeInt(attributes.constants.size());
+                        for (final Map.Entry<String, ?> entry : attributes.constants.entrySet()) {
+                            writeString(entry.getKey());
+                            writeValue(entry.getValue());
+                        }
+                    }
+                    out.writeInt(attributes.expressions.size());
+                    for (final Map.Entry<String, ExpressionHolder> entry
+                            : attributes.expressions.entrySet()) {
+                        writeString(entry.getKey());
+                        writeString(entry.getValue().getExpression());
+                    }
+                    break;
+                case FlowGraph.RANDOM_SWITCH:
+                    final RandomSwitch randomSwitch = graph.randomSwitches[node];
+                    out.writeBoolean(randomSwitch.weights != null);
+                    if (randomSwitch.weights != null) {
+                        out.writeInt(randomSwitch.weights.length);
+                        for (int i = 0; i < randomSwitch.weights.length; i++) {
+                            out.writeDouble(randomSwitch.weights[i]);
+                            out.writeDouble(randomSwitch.aliasTable.probabilities[i]);
+                            out.writeInt(randomSwitch.aliasTable.aliases[i]);
+                        }
+                        writeString(randomSwitch.key);
+                        writeString(randomSwitch.prefix);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void writeConstant(final ExpressionHolder holder) throws IOException {
+            out.writeBoolean(holder.isConstant());
+            if (holder.isConstant()) {
+                writeValue(holder.getConstantValue());
+            }
+        }
+
+        private void writeString(final String string) throws IOException {
+            if (string == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            out.writeInt(index);
+        }
+
+        private void writeValue(final Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL_VALUE);
+            } else if (value instanceof String) {
+                out.writeByte(STRING_VALUE);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN_VALUE);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER_VALUE);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG_VALUE);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT_VALUE);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE_VALUE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER_VALUE);
+                writeString(value.toString());
+            } else if (value instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL_VALUE);
+                writeString(value.toString());
+            } else if (value instanceof List) {
+                out.writeByte(LIST_VALUE);
+                out.writeInt(((List<?>) value).size());
+                for (final Object item : (List<?>) value) {
+                    writeValue(item);
+                }
+            } else if (value instanceof Map) {
+                out.writeByte(MAP_VALUE);
+                out.writeInt(((Map<?, ?>) value).size());
+                for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writeString(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            } else {
+                throw new DecisionFlowException(String.format(
+                        "Attribute values of type %s can't be written.",
+                        value.getClass().getName()));
+            }
+        }
+
+        private void writeStrings(final DataOutputStream file) throws IOException {
+            final List<byte[]> encoded = new ArrayList<>(strings.size());
+            for (final String string : strings.keySet()) {
+                encoded.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            file.writeInt(encoded.size());
+            int offset = 0;
+            file.writeInt(offset);
+            for (final byte[] bytes : encoded) {
+                offset += bytes.length;
+                file.writeInt(offset);
+            }
+            for (final byte[] bytes : encoded) {
+                file.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the graph straight from the mapped file. Each string is decoded from the mapping
+     * the first time it is referred to and shared from then on.
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final ExpressionParser expressionParser;
+        private final EvaluationContext evaluationContext;
+        private final int stringOffsets;
+        private final int stringBytes;
+        private final String[] strings;
+
+        private Reader(
+                final ByteBuffer buffer,
+                final ExpressionParser expressionParser,
+                final EvaluationContext evaluationContext) {
+            this.buffer = buffer;
+            this.expressionParser = expressionParser;
+            this.evaluationContext = evaluationContext;
+            strings = new String[buffer.getInt()];
+            stringOffsets = buffer.position();
+            stringBytes = stringOffsets + 4 * (strings.length + 1);
+            buffer.position(stringBytes + buffer.getInt(stringOffsets + 4 * strings.length));
+        }
+
+        private FlowGraph readGraph() {
+            final int nodeCount = buffer.getInt();
+            final int arrowCount = buffer.getInt();
+            final Element[] elements = new Element[nodeCount + arrowCount];
+            final ElementType[] types = ElementType.values();
+            for (int i = 0; i < elements.length; i++) {
+                final ElementType type = types[buffer.get()];
+                final byte flags = buffer.get();
+                final String id = readString();
+                final String name = readString();
+                final String expression = readString();
+                final String sourceNodeId = readString();
+                final String destinationNodeId = readString();
+                @SuppressWarnings("unchecked")
+                final Map<String, ?> attributes = (Map<String, ?>) readValue();
+                elements[i] = new Element(
+                        id,
+                        name,
+                        type,
+                        (attributes == null) ? null : Collections.unmodifiableMap(attributes),
+                        expression,
+                        sourceNodeId,
+                        destinationNodeId,
+                        (flags & DEFAULT_FLAG) != 0,
+                        (flags & OBLIGATORY_FLAG) != 0);
+            }
+            final byte[] nodeKinds = new byte[nodeCount];
+            buffer.get(nodeKinds);
+            final int[] firstArrows = new int[nodeCount + 1];
+            buffer.asIntBuffer().get(firstArrows);
+            buffer.position(buffer.position() + 4 * firstArrows.length);
+            final byte[] arrowKinds = new byte[arrowCount];
+            buffer.get(arrowKinds);
+            final int[] arrowDestinations = new int[arrowCount];
+            buffer.asIntBuffer().get(arrowDestinations);
+            buffer.position(buffer.position() + 4 * arrowDestinations.length);
+            checkStructure(nodeKinds, firstArrows, arrowKinds, arrowDestinations);
+
+            final ExpressionHolder[] nodeExpressions = new ExpressionHolder[nodeCount];
+            final TargetAttributes[] targetAttributes = new TargetAttributes[nodeCount];
+            final RandomSwitch[] randomSwitches = new RandomSwitch[nodeCount];
+            for (int n = 0; n < nodeCount; n++) {
+                switch (nodeKinds[n]) {
+                    case FlowGraph.SWITCH:
+                        nodeExpressions[n] = parse(elements[n].getExpression());
+                        break;
+                    case FlowGraph.TARGET:
+                        nodeExpressions[n] = readExpression(elements[n].getExpression());
+                        targetAttributes[n] = readTargetAttributes();
+                        break;
+                    case FlowGraph.RANDOM_SWITCH:
+                        randomSwitches[n] = readRandomSwitch();
+                        nodeExpressions[n] = FlowGraph.randomiser(randomSwitches[n], this::parse);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            final ExpressionHolder[] arrowExpressions = new ExpressionHolder[arrowCount];
+            for (int n = 0; n < nodeCount; n++) {
+                for (int a = firstArrows[n]; a < firstArrows[n + 1]; a++) {
+                    // the arrows of a random switch hold the index drawn, not their label
+                    arrowExpressions[a] = readExpression((nodeKinds[n] == FlowGraph.RANDOM_SWITCH)
+                            ? String.valueOf(a - firstArrows[n])
+                            : elements[nodeCount + a].getExpression());
+                }
+            }
+            return new FlowGraph(elements, nodeCount, nodeKinds, firstArrows, arrowKinds,
+                    arrowDestinations, nodeExpressions, targetAttributes, randomSwitches,
+                    arrowExpressions);
+        }
+
+        private static void checkStructure(
+                final byte[] nodeKinds,
+                final int[] firstArrows,
+                final byte[] arrowKinds,
+                final int[] arrowDestinations) {
+            boolean valid = firstArrows[0] == 0
+                    && firstArrows[nodeKinds.length] == arrowKinds.length;
+            for (int n = 0; n < nodeKinds.length; n++) {
+                valid &= nodeKinds[n] >= FlowGraph.INITIAL && nodeKinds[n] <= FlowGraph.TARGET
+                        && firstArrows[n] <= firstArrows[n + 1];
+            }
+            for (int a = 0; a < arrowKinds.length; a++) {
+                valid &= arrowKinds[a] >= FlowGraph.DEFAULT && arrowKinds[a] <= FlowGraph.ORDINARY
+                        && arrowDestinations[a] >= 0 && arrowDestinations[a] < nodeKinds.length;
+            }
+            if (!valid) {
+                throw new DecisionFlowException("Corrupt binary flow.");
+            }
+        }
+
+        private TargetAttributes readTargetAttributes() {
+            Map<String, Object> constants = null;
+            if (buffer.get() != 0) {
+                final int count = buffer.getInt();
+                constants = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    constants.put(readString(), readValue());
+                }
+                constants = Collections.unmodifiableMap(constants);
+            }
+            final int count = buffer.getInt();
+            final Map<String, ExpressionHolder> expressions = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                expressions.put(readString(), parse(readString()));
+            }
+            return new TargetAttributes(constants, expressions);
+        }
+
+        private RandomSwitch readRandomSwitch() {
+            if (buffer.get() == 0) {
+                return new RandomSwitch(null, null, null, null);
+            }
+            final int count = buffer.getInt();
+            final double[] weights = new double[count];
+            final double[] probabilities = new double[count];
+            final int[] aliases = new int[count];
+            for (int i = 0; i < count; i++) {
+                weights[i] = buffer.getDouble();
+                probabilities[i] = buffer.getDouble();
+                aliases[i] = buffer.getInt();
+                if (aliases[i] < 0 || aliases[i] >= count) {
+                    throw new DecisionFlowException("Corrupt binary flow.");
+                }
+            }
+            return new RandomSwitch(
+                    weights, new AliasTable(probabilities, aliases), readString(), readString());
+        }
+
+        private ExpressionHolder readExpression(final String expression) {
+            return (buffer.get() != 0)
+                    ? ExpressionHolder.constant(expression, readValue())
+                    : parse(expression);
+        }
+
+        private ExpressionHolder parse(final String expression) {
+            return new ExpressionHolder(expression, expressionParser, evaluationContext);
+        }
+
+        private String readString() {
+            final int index = buffer.getInt();
+            if (index == -1) {
+                return null;
+            }
+            if (strings[index] == null) {
+                final int start = buffer.getInt(stringOffsets + 4 * index);
+                final int end = buffer.getInt(stringOffsets + 4 * (index + 1));
+                final ByteBuffer bytes = buffer.duplicate();
+                bytes.limit(stringBytes + end).position(stringBytes + start);
+                strings[index] = StandardCharsets.UTF_8.decode(bytes).toString();
+            }
+            return strings[index];
+        }
+
+        private Object readValue() {
+            final byte tag = buffer.get();
+            switch (tag) {
+                case NULL_VALUE:
+                    return null;
+                case STRING_VALUE:
+                    return readString();
+                case BOOLEAN_VALUE:
+                    return buffer.get() != 0;
+                case INTEGER_VALUE:
+                    return buffer.getInt();
+                case LONG_VALUE:
+                    return buffer.getLong();
+                case FLOAT_VALUE:
+                    return buffer.getFloat();
+                case DOUBLE_VALUE:
+                    return buffer.getDouble();
+                case BIG_INTEGER_VALUE:
+                    return new BigInteger(readString());
+                case BIG_DECIMAL_VALUE:
+                    return new BigDecimal(readString());
+                case LIST_VALUE:
+                    final int size = buffer.getInt();
+                    final List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                case MAP_VALUE:
+                    final int count = buffer.getInt();
+                    final Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        map.put(readString(), readValue());
+                    }
+                    return map;
+                default:
+                    throw new DecisionFlowException(String.format(
+                            "Corrupt binary flow (value tag %d).", tag));
+            }
+        }
+    }
+}
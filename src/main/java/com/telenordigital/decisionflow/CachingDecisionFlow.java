@@ -0,0 +1,244 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A decision machine that remembers what it decided for contexts with the same key, so that
+ * the decisions are shared between calls. The key is extracted from the context by a given
+ * function; a null key is never cached. The cache holds a bounded number of entries, evicted
+ * along the lines of W-TinyLFU, optionally for a limited time only.
+ *
+ * <p>With a DecisionFlow, or a ReloadingDecisionFlow holding one, a call that passes a
+ * random switch that is not sticky, or a node with an expression that is not pure, is not
+ * cached: expressions are pure if they only read properties and call the methods named as
+ * pure. The key has to cover everything else the expressions read, the keys of sticky
+ * switches included; the arrow drawn for a sticky key that is null is cached like any other. Other machines are trusted to decide the same
+ * for the same key. The cache is emptied whenever a ReloadingDecisionFlow swaps in a new
+ * version.
+ */
+public final class CachingDecisionFlow<C, P> implements DecisionMachine<C, P> {
+    // cached in place of a call that found no decision
+    private static final Object NO_DECISION = new Object();
+
+    private final DecisionMachine<C, P> machine;
+    private final Function<? super C, ?> keyOf;
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final Set<String> pureMethods;
+    private final TinyLfuCache<CacheKey, Object> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+    private volatile Version version;
+
+    private CachingDecisionFlow(
+            final DecisionMachine<C, P> machine,
+            final Function<? super C, ?> keyOf,
+            final int maximumSize,
+            final long timeToLiveNanos,
+            final Set<String> pureMethods) {
+        this.machine = machine;
+        this.keyOf = keyOf;
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.pureMethods = pureMethods;
+        this.cache = new TinyLfuCache<>(maximumSize, timeToLiveNanos);
+    }
+
+    /**
+     * Caches up to maximumSize results of the machine, which stay cached until evicted. No
+     * methods are taken to be pure.
+     */
+    public static <C, P> CachingDecisionFlow<C, P> getInstance(
+            final DecisionMachine<C, P> machine,
+            final Function<? super C, ?> keyOf,
+            final int maximumSize) {
+        return new CachingDecisionFlow<>(
+                machine, keyOf, maximumSize, Long.MAX_VALUE, Collections.emptySet());
+    }
+
+    /**
+     * Returns a new cache like this one, whose entries expire the given time after they
+     * were cached.
+     */
+    public CachingDecisionFlow<C, P> withTimeToLive(final long timeToLive, final TimeUnit unit) {
+        return new CachingDecisionFlow<>(
+                machine, keyOf, maximumSize, unit.toNanos(timeToLive), pureMethods);
+    }
+
+    /**
+     * Returns a new cache like this one, that also caches calls whose expressions call the
+     * given methods.
+     */
+    public CachingDecisionFlow<C, P> withPureMethods(final Set<String> pureMethodNames) {
+        return new CachingDecisionFlow<>(
+                machine, keyOf, maximumSize, timeToLiveNanos, new HashSet<>(pureMethodNames));
+    }
+
+    @Override
+    public Decision<P> getDecision(final C context) {
+        return cached(context, false,
+                (flow, checkpoint) -> flow.getDecision(context, checkpoint),
+                current -> current.getDecision(context));
+    }
+
+    /**
+     * The list returned is shared with the other calls the cache serves, and cannot be
+     * changed.
+     */
+    @Override
+    public List<Decision<P>> getDecisions(final C context) {
+        return cached(context, true,
+                (flow, checkpoint) -> Collections.unmodifiableList(
+                        flow.getDecisions(context, checkpoint)),
+                current -> Collections.unmodifiableList(current.getDecisions(context)));
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The calls that were not cached because of a null key, or because they passed a random
+     * switch that is not sticky or an expression that is not pure.
+     */
+    public long getUncacheableCount() {
+        return uncacheable.sum();
+    }
+
+    public long getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    private <R> R cached(
+            final C context,
+            final boolean allDecisions,
+            final BiFunction<DecisionFlow<C, P>, Checkpoint, R> checked,
+            final Function<DecisionMachine<C, P>, R> unchecked) {
+        final Version current = currentVersion();
+        final Object key = keyOf.apply(context);
+        if (key == null) {
+            uncacheable.increment();
+            return unchecked.apply(current.machine);
+        }
+        final CacheKey cacheKey = new CacheKey(current.machine, allDecisions, key);
+        final Object cachedResult = cache.get(cacheKey, System.nanoTime());
+        if (cachedResult != null) {
+            hits.increment();
+            @SuppressWarnings("unchecked")
+            final R result = (cachedResult == NO_DECISION) ? null : (R) cachedResult;
+            return result;
+        }
+        misses.increment();
+        final R result;
+        if (current.impureNodes != null) {
+            final boolean[] impureNodes = current.impureNodes;
+            final AtomicBoolean impure = new AtomicBoolean();
+            result = checked.apply((DecisionFlow<C, P>) current.machine, node -> {
+                if (impureNodes[node]) {
+                    impure.set(true);
+                }
+            });
+            if (impure.get()) {
+                uncacheable.increment();
+                return result;
+            }
+        } else {
+            result = unchecked.apply(current.machine);
+        }
+        synchronized (cache) {
+            // a result of a version that has been swapped out since would pin it in the cache
+            if (version == current) {
+                cache.put(cacheKey, (result == null) ? NO_DECISION : result, System.nanoTime());
+            }
+        }
+        return result;
+    }
+
+    private Version currentVersion() {
+        final DecisionMachine<C, P> currentMachine = (machine instanceof ReloadingDecisionFlow)
+                ? ((ReloadingDecisionFlow<C, P>) machine).getCurrent()
+                : machine;
+        final Version known = version;
+        if (known != null && known.machine == currentMachine) {
+            return known;
+        }
+        final Version loaded = new Version(currentMachine);
+        synchronized (cache) {
+            final Version latest = version;
+            if (latest != null && latest.machine == currentMachine) {
+                return latest;
+            }
+            version = loaded;
+            if (latest != null) {
+                // entries of the old version can no longer be hit
+                cache.clear();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * A version of the machine, with the nodes of a DecisionFlow that make a call uncacheable.
+     */
+    private final class Version {
+        private final DecisionMachine<C, P> machine;
+        private final boolean[] impureNodes;
+
+        private Version(final DecisionMachine<C, P> machine) {
+            this.machine = machine;
+            this.impureNodes = (machine instanceof DecisionFlow)
+                    ? ((DecisionFlow<C, P>) machine).impureNodes(pureMethods)
+                    : null;
+        }
+    }
+
+    /**
+     * The key of the context, told apart by the version of the machine and by the method
+     * called.
+     */
+    private static final class CacheKey {
+        private final Object machine;
+        private final boolean allDecisions;
+        private final Object key;
+
+        private CacheKey(final Object machine, final boolean allDecisions, final Object key) {
+            this.machine = machine;
+            this.allDecisions = allDecisions;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey that = (CacheKey) other;
+            return machine == that.machine
+                    && allDecisions == that.allDecisions
+                    && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(machine), allDecisions, key);
+        }
+    }
+}
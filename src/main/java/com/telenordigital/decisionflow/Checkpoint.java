@@ -0,0 +1,12 @@
+package com.telenordigital.decisionflow;
+
+/**
+ * Told about the progress of a walk over the flow: before each node is visited, and of the
+ * expressions evaluated along the way. Either may stop the walk by throwing.
+ */
+interface Checkpoint {
+    void beforeNode(int node);
+
+    default void evaluated(final int count) {
+    }
+}
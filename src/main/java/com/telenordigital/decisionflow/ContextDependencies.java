@@ -0,0 +1,180 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.Indexer;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.Projection;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.Selection;
+import org.springframework.expression.spel.ast.VariableReference;
+
+/**
+ * What the expressions of a flow, or of one of its nodes, read from the context, as found by
+ * walking their syntax trees. Property paths are dotted, such as "customer.address.city";
+ * the elements of a collection, picked by index, selection or projection, are read under the
+ * path of the collection. Method calls are given with the path they are called on, such as
+ * "customer.isAdult()" or "step()" on the context itself, and as "?.name()" when called on
+ * anything else, such as what another method returned. What a method reads is not known,
+ * nor is anything read through the results of method calls or through variables.
+ */
+public final class ContextDependencies {
+    static final ContextDependencies NONE =
+            new ContextDependencies(new TreeSet<>(), new TreeSet<>());
+
+    private static final String UNKNOWN_RECEIVER = "?";
+
+    private final SortedSet<String> propertyPaths;
+    private final SortedSet<String> methodCalls;
+
+    private ContextDependencies(
+            final SortedSet<String> propertyPaths,
+            final SortedSet<String> methodCalls) {
+        this.propertyPaths = Collections.unmodifiableSortedSet(propertyPaths);
+        this.methodCalls = Collections.unmodifiableSortedSet(methodCalls);
+    }
+
+    public SortedSet<String> getPropertyPaths() {
+        return propertyPaths;
+    }
+
+    public SortedSet<String> getMethodCalls() {
+        return methodCalls;
+    }
+
+    /**
+     * Whether the expressions depend on nothing but the property paths.
+     */
+    public boolean isPropertiesOnly() {
+        return methodCalls.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("properties %s, methods %s", propertyPaths, methodCalls);
+    }
+
+    /**
+     * Collects the dependencies of expressions one after another.
+     */
+    static final class Collector {
+        private final SortedSet<String> propertyPaths = new TreeSet<>();
+        private final SortedSet<String> methodCalls = new TreeSet<>();
+
+        void add(final SpelNode ast) {
+            if (ast != null) {
+                visit(ast, "");
+            }
+        }
+
+        void add(final ContextDependencies dependencies) {
+            propertyPaths.addAll(dependencies.propertyPaths);
+            methodCalls.addAll(dependencies.methodCalls);
+        }
+
+        ContextDependencies toDependencies() {
+            return (propertyPaths.isEmpty() && methodCalls.isEmpty())
+                    ? NONE
+                    : new ContextDependencies(
+                            new TreeSet<>(propertyPaths), new TreeSet<>(methodCalls));
+        }
+
+        /**
+         * Visits a node evaluated on the object at the given path, or on an object not
+         * from the context when the path is null.
+         */
+        private void visit(final SpelNode node, final String path) {
+            if (node instanceof CompoundExpression) {
+                visitChain(node, path);
+            } else if (node instanceof PropertyOrFieldReference) {
+                if (path != null) {
+                    addPath(append(path, ((PropertyOrFieldReference) node).getName()));
+                }
+            } else if (node instanceof MethodReference) {
+                addCall(path, (MethodReference) node);
+            } else if (node instanceof Indexer) {
+                visitChildren(node, "");
+            } else if (node instanceof Selection
+                    || node instanceof Projection
+                    || (node instanceof VariableReference
+                            && "#this".equals(node.toStringAST()))) {
+                addPath(path);
+                visitChildren(node, path);
+            } else {
+                visitChildren(node, path);
+            }
+        }
+
+        /**
+         * Follows a chain like a.b[0].c().d, keeping the path of the object at hand as far
+         * as it is known, and adding it where the chain ends or turns to something else.
+         */
+        private void visitChain(final SpelNode chain, final String start) {
+            String path = start;
+            String pending = null;
+            for (int i = 0; i < chain.getChildCount(); i++) {
+                final SpelNode link = chain.getChild(i);
+                if (link instanceof PropertyOrFieldReference) {
+                    path = (path == null)
+                            ? null
+                            : append(path, ((PropertyOrFieldReference) link).getName());
+                    pending = path;
+                    continue;
+                }
+                if (link instanceof Indexer) {
+                    // the element stays under the path, the index is read from the context
+                    visitChildren(link, "");
+                    continue;
+                }
+                if (link instanceof Selection) {
+                    visitChildren(link, path);
+                    continue;
+                }
+                addPath(pending);
+                pending = null;
+                if (link instanceof Projection) {
+                    visitChildren(link, path);
+                    addPath(path);
+                    path = null;
+                } else if (link instanceof MethodReference) {
+                    addCall(path, (MethodReference) link);
+                    path = null;
+                } else if (i == 0 && link instanceof VariableReference) {
+                    final String variable = link.toStringAST();
+                    path = "#root".equals(variable) ? ""
+                            : "#this".equals(variable) ? start
+                            : null;
+                } else {
+                    visit(link, (i == 0) ? start : path);
+                    path = null;
+                }
+            }
+            addPath(pending);
+        }
+
+        private void visitChildren(final SpelNode node, final String path) {
+            for (int i = 0; i < node.getChildCount(); i++) {
+                visit(node.getChild(i), path);
+            }
+        }
+
+        private void addCall(final String path, final MethodReference method) {
+            final String receiver = (path == null) ? UNKNOWN_RECEIVER : path;
+            methodCalls.add(append(receiver, method.getName()) + "()");
+            visitChildren(method, "");
+        }
+
+        private void addPath(final String path) {
+            if (path != null && !path.isEmpty()) {
+                propertyPaths.add(path);
+            }
+        }
+
+        private static String append(final String path, final String name) {
+            return path.isEmpty() ? name : path + "." + name;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionBudgetExceededException.Limit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits on a single getDecision or getDecisions call: the number of nodes visited, the
+ * number of expressions evaluated and the time taken. The limits are checked before each
+ * node is visited, so the expressions of the node at hand are always evaluated in full, and
+ * a context method that hangs is not cut short. Once a limit is reached, the call throws a
+ * DecisionBudgetExceededException, or returns the decisions found so far if asked to.
+ */
+public final class DecisionBudget {
+    private static final DecisionBudget UNLIMITED =
+            new DecisionBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, false);
+
+    private final int maxNodes;
+    private final int maxEvaluations;
+    private final long timeoutNanos;
+    private final boolean partialDecisions;
+
+    private DecisionBudget(
+            final int maxNodes,
+            final int maxEvaluations,
+            final long timeoutNanos,
+            final boolean partialDecisions) {
+        this.maxNodes = maxNodes;
+        this.maxEvaluations = maxEvaluations;
+        this.timeoutNanos = timeoutNanos;
+        this.partialDecisions = partialDecisions;
+    }
+
+    /**
+     * A budget without limits, to add them to.
+     */
+    public static DecisionBudget getInstance() {
+        return UNLIMITED;
+    }
+
+    public DecisionBudget withMaxNodes(final int nodes) {
+        return new DecisionBudget(nodes, maxEvaluations, timeoutNanos, partialDecisions);
+    }
+
+    /**
+     * Limits the evaluations of switch, arrow, payload and attribute expressions. Literals
+     * are not evaluated and do not count.
+     */
+    public DecisionBudget withMaxEvaluations(final int evaluations) {
+        return new DecisionBudget(maxNodes, evaluations, timeoutNanos, partialDecisions);
+    }
+
+    public DecisionBudget withTimeout(final long timeout, final TimeUnit unit) {
+        return new DecisionBudget(
+                maxNodes, maxEvaluations, unit.toNanos(timeout), partialDecisions);
+    }
+
+    /**
+     * Makes calls that run out of budget return the decisions found so far instead of
+     * throwing; getDecision returns null unless it had found its decision.
+     */
+    public DecisionBudget withPartialDecisions() {
+        return new DecisionBudget(maxNodes, maxEvaluations, timeoutNanos, true);
+    }
+
+    boolean isPartialDecisions() {
+        return partialDecisions;
+    }
+
+    /**
+     * Starts spending the budget on one call; the clock starts now.
+     */
+    Checkpoint start() {
+        return new Spending((timeoutNanos == Long.MAX_VALUE) ? 0 : System.nanoTime());
+    }
+
+    /**
+     * What has been spent so far. Branches followed concurrently share it.
+     */
+    private final class Spending implements Checkpoint {
+        private final long startNanos;
+        private final AtomicInteger nodes = new AtomicInteger();
+        private final AtomicInteger evaluations = new AtomicInteger();
+
+        private Spending(final long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void beforeNode(final int node) {
+            if (nodes.incrementAndGet() > maxNodes) {
+                throw new DecisionBudgetExceededException(String.format(
+                        "More than %d nodes visited.", maxNodes), Limit.NODES);
+            }
+            if (evaluations.get() > maxEvaluations) {
+                throw new DecisionBudgetExceededException(String.format(
+                        "More than %d expressions evaluated.", maxEvaluations),
+                        Limit.EVALUATIONS);
+            }
+            // the time taken is compared rather than a deadline, which may not fit in a long
+            if (timeoutNanos != Long.MAX_VALUE
+                    && System.nanoTime() - startNanos > timeoutNanos) {
+                throw new DecisionBudgetExceededException(String.format(
+                        "Time limit of %d ms exceeded.",
+                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos)), Limit.TIME);
+            }
+        }
+
+        @Override
+        public void evaluated(final int count) {
+            evaluations.addAndGet(count);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.telenordigital.decisionflow;
+
+/**
+ * Thrown when a walk over the flow runs out of its DecisionBudget.
+ */
+@SuppressWarnings("serial")
+public class DecisionBudgetExceededException extends DecisionFlowException {
+
+    public enum Limit {
+        NODES,
+        EVALUATIONS,
+        TIME
+    }
+
+    private final Limit limit;
+
+    public DecisionBudgetExceededException(final String message, final Limit limit) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * The limit that was reached.
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+}
@@ -1,54 +1,359 @@
 package com.telenordigital.decisionflow;
 
 import com.telenordigital.decisionflow.Decision.OnAttributesCallback;
-import com.telenordigital.decisionflow.DecisionFlowDescriber.Callback;
 import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
 import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import com.telenordigital.decisionflow.FlowGraph.Element;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.stream.Collectors;
-import org.springframework.expression.Expression;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.ReflectiveConstructorResolver;
+import org.springframework.expression.spel.support.ReflectiveMethodResolver;
+import org.springframework.expression.spel.support.ReflectivePropertyAccessor;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.expression.spel.support.StandardTypeConverter;
+import org.springframework.expression.spel.support.StandardTypeLocator;
 
 public final class DecisionFlow<C, P> implements DecisionMachine<C, P> {
 
-    private InitialNode initialNode = null;
-    private final Map<String, AbstractNode> nodeMap = new HashMap<>();
+    private final SpelCompilerMode compilerMode;
+    private final ExpressionParser expressionParser;
+    private final EvaluationContext evaluationContext;
+    private final TraceMode traceMode;
+    private final FlowGraph graph;
+    private final Decision<P>[] constantDecisions;
+    private final Executor branchExecutor;
+    private final Set<String> pureMethods;
+    private final Map<ExpressionHolder, Integer> memoSlots;
+    private final int memoSize;
+    private final Map<String, ContextDependencies> nodeDependencies;
+    private final ContextDependencies dependencies;
+
+    private DecisionFlow(
+            final BiFunction<ExpressionParser, EvaluationContext, FlowGraph> loader,
+            final SpelCompilerMode compilerMode,
+            final TraceMode traceMode) {
+        this(loader, compilerMode, traceMode,
+                new SpelExpressionParser(new SpelParserConfiguration(
+                        compilerMode, DecisionFlow.class.getClassLoader())),
+                createEvaluationContext(),
+                null,
+                null);
+    }
+
+    private DecisionFlow(
+            final BiFunction<ExpressionParser, EvaluationContext, FlowGraph> loader,
+            final SpelCompilerMode compilerMode,
+            final TraceMode traceMode,
+            final ExpressionParser expressionParser,
+            final EvaluationContext evaluationContext,
+            final Executor branchExecutor,
+            final Set<String> pureMethods) {
+        this.compilerMode = compilerMode;
+        this.traceMode = traceMode;
+        this.expressionParser = expressionParser;
+        this.evaluationContext = evaluationContext;
+        this.graph = loader.apply(expressionParser, evaluationContext);
+        this.constantDecisions = createConstantDecisions();
+        this.branchExecutor = branchExecutor;
+        this.pureMethods = pureMethods;
+        this.memoSlots = createMemoSlots();
+        this.memoSize = countSlots();
+        this.nodeDependencies = analyseNodeDependencies();
+        this.dependencies = combine(nodeDependencies.values());
+    }
 
-    private DecisionFlow(final DecisionFlowDescriber describer) {
-        load(describer);
+    private DecisionFlow(
+            final DecisionFlow<C, P> flow,
+            final Executor branchExecutor,
+            final Set<String> pureMethods) {
+        this.compilerMode = flow.compilerMode;
+        this.traceMode = flow.traceMode;
+        this.expressionParser = flow.expressionParser;
+        this.evaluationContext = flow.evaluationContext;
+        this.graph = flow.graph;
+        this.constantDecisions = flow.constantDecisions;
+        this.branchExecutor = branchExecutor;
+        this.pureMethods = pureMethods;
+        this.memoSlots = (pureMethods == flow.pureMethods) ? flow.memoSlots : createMemoSlots();
+        this.memoSize = (pureMethods == flow.pureMethods) ? flow.memoSize : countSlots();
+        this.nodeDependencies = flow.nodeDependencies;
+        this.dependencies = flow.dependencies;
     }
 
     public static <C, P> DecisionMachine<C, P> getInstance(final DecisionFlowDescriber describer) {
-        return new DecisionFlow<>(describer);
+        return getInstance(describer, SpelCompilerMode.OFF);
+    }
+
+    /**
+     * Creates a flow whose expressions are evaluated according to the given SpEL compiler mode.
+     * With IMMEDIATE or MIXED, SpEL compiles an expression to bytecode once it has evaluated
+     * it and knows the types involved, so nothing is compiled while loading; expressions that
+     * cannot be compiled keep being interpreted.
+     */
+    public static <C, P> DecisionMachine<C, P> getInstance(
+            final DecisionFlowDescriber describer,
+            final SpelCompilerMode compilerMode) {
+        return getInstance(describer, compilerMode, TraceMode.FULL);
+    }
+
+    /**
+     * Creates a flow whose getDecisions(context) records decision paths as given by the trace
+     * mode. Flows created by the other factory methods trace in FULL.
+     */
+    public static <C, P> DecisionMachine<C, P> getInstance(
+            final DecisionFlowDescriber describer,
+            final SpelCompilerMode compilerMode,
+            final TraceMode traceMode) {
+        return new DecisionFlow<>(
+                (parser, context) -> new FlowGraph(describer, parser, context, null),
+                compilerMode,
+                traceMode);
+    }
+
+    /**
+     * Loads a new version of this flow from the describer, with the same compiler and trace
+     * modes. Elements that did not change are taken over, and so is every expression whose
+     * text is still in use, already parsed and, with a compiler mode, possibly compiled.
+     * This flow is left as it is.
+     */
+    public DecisionFlow<C, P> recompile(final DecisionFlowDescriber describer) {
+        return new DecisionFlow<>(
+                (parser, context) -> new FlowGraph(describer, parser, context, graph),
+                compilerMode,
+                traceMode,
+                expressionParser,
+                evaluationContext,
+                branchExecutor,
+                pureMethods);
+    }
+
+    /**
+     * Returns this flow with getDecisions following the obligatory arrows that leave a node
+     * concurrently, all but the first of them on the executor, or one after another again
+     * when the executor is null. The decisions and their paths come out just as they do
+     * sequentially, but the context has to cope with being used by several threads at once.
+     */
+    public DecisionFlow<C, P> withBranchExecutor(final Executor executor) {
+        return new DecisionFlow<>(this, executor, pureMethods);
+    }
+
+    /**
+     * Returns this flow with each getDecision and getDecisions call keeping the values of
+     * pure expressions, so that an expression used at several switches, arrows or targets
+     * is evaluated once per call. Expressions are taken to be pure when they read properties
+     * and call none but the given methods, and do not assign anything or create objects;
+     * they are told apart by their normalised text. Property getters must then have no side
+     * effects, and return the same value throughout a call. A null set turns this off again.
+     */
+    public DecisionFlow<C, P> withMemoization(final Set<String> pureMethodNames) {
+        return new DecisionFlow<>(this, branchExecutor,
+                (pureMethodNames == null) ? null : new HashSet<>(pureMethodNames));
+    }
+
+    /**
+     * Loads a flow written by writeBinary, without going through a describer.
+     */
+    public static <C, P> DecisionMachine<C, P> readBinary(final Path path) {
+        return readBinary(path, SpelCompilerMode.OFF, TraceMode.FULL);
+    }
+
+    public static <C, P> DecisionMachine<C, P> readBinary(
+            final Path path,
+            final SpelCompilerMode compilerMode,
+            final TraceMode traceMode) {
+        return new DecisionFlow<>(
+                (parser, context) -> BinaryFlowFormat.read(path, parser, context),
+                compilerMode,
+                traceMode);
+    }
+
+    /**
+     * Writes the flow in a binary form that readBinary loads faster than any describer: the
+     * graph is stored already validated and sorted, and only the expressions that are not
+     * literals have to be parsed again. Files written by another version of the format are
+     * rejected.
+     */
+    public void writeBinary(final Path path) {
+        BinaryFlowFormat.write(graph, path);
     }
 
+    /**
+     * Returns the first decision reached. No decision path is recorded, and targets whose
+     * payload and attributes are constant always return the same decision instance.
+     * Use getDecision(context, traceMode) to get the path as well.
+     */
     @Override
     public Decision<P> getDecision(final C context) {
-        final List<Decision<P>> decisions = getDecisions(context, true);
+        final Memo memo = newMemo();
+        return decisionAt(findFirstTarget(context, graph.initialNode, null, memo), context, memo);
+    }
+
+    /**
+     * getDecision reporting to the checkpoint before each node is visited and after the
+     * expressions of each node have been evaluated.
+     */
+    Decision<P> getDecision(final C context, final Checkpoint checkpoint) {
+        final Memo memo = newMemo();
+        return decisionAt(
+                findFirstTarget(context, graph.initialNode, checkpoint, memo), context, memo);
+    }
+
+    private Decision<P> decisionAt(final int target, final C context, final Memo memo) {
+        if (target == FlowGraph.NONE) {
+            return null;
+        }
+        if (constantDecisions[target] != null) {
+            return constantDecisions[target];
+        }
+        @SuppressWarnings({ "unchecked"})
+        final P payload = (P) Memo.eval(memo, graph.nodeExpressions[target], context);
+        final Map<String, ?> attributes = graph.targetAttributes[target].eval(context, memo);
+        if (payload instanceof OnAttributesCallback) {
+            ((OnAttributesCallback) payload).onAttributes(attributes);
+        }
+        return new SingleDecision<>(graph.elements[target], payload, attributes);
+    }
+
+    public Decision<P> getDecision(final C context, final TraceMode callTraceMode) {
+        if (callTraceMode == TraceMode.OFF) {
+            return getDecision(context);
+        }
+        final List<Decision<P>> decisions = new ArrayList<>();
+        new Traversal(context, callTraceMode, true, decisions, null, null, null)
+                .visit(graph.initialNode);
         return decisions.isEmpty() ? null : decisions.get(0);
     }
 
     @Override
     public List<Decision<P>> getDecisions(final C context) {
-        return getDecisions(context, false);
+        return getDecisions(context, traceMode);
+    }
+
+    public List<Decision<P>> getDecisions(final C context, final TraceMode callTraceMode) {
+        final List<Decision<P>> decisions = new ArrayList<>();
+        new Traversal(context, callTraceMode, false, decisions, null, branchExecutor, null)
+                .visit(graph.initialNode);
+        return decisions;
+    }
+
+    /**
+     * getDecision within the budget. With partial decisions allowed, null is returned once
+     * the budget runs out.
+     */
+    public Decision<P> getDecision(final C context, final DecisionBudget budget) {
+        try {
+            return getDecision(context, budget.start());
+        } catch (DecisionBudgetExceededException e) {
+            if (budget.isPartialDecisions()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * getDecisions within the budget. With partial decisions allowed, the decisions found
+     * until the budget ran out are returned; those of branches still being followed
+     * concurrently at the time are dropped.
+     */
+    public List<Decision<P>> getDecisions(final C context, final DecisionBudget budget) {
+        final List<Decision<P>> decisions = new ArrayList<>();
+        try {
+            new Traversal(context, traceMode, false, decisions, null, branchExecutor,
+                    budget.start()).visit(graph.initialNode);
+        } catch (DecisionBudgetExceededException e) {
+            if (!budget.isPartialDecisions()) {
+                throw e;
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * getDecisions reporting to the checkpoint as getDecision does, from every branch.
+     */
+    List<Decision<P>> getDecisions(final C context, final Checkpoint checkpoint) {
+        final List<Decision<P>> decisions = new ArrayList<>();
+        new Traversal(context, traceMode, false, decisions, null, branchExecutor, checkpoint)
+                .visit(graph.initialNode);
+        return decisions;
+    }
+
+    /**
+     * Decides for all the contexts in one walk over the flow: each node is visited once for
+     * the group of contexts that have reached it, which is then split by the arrow each of
+     * them takes. Every context goes through the same steps as with getDecision, but the
+     * expressions are evaluated for one context after another at each node, rather than
+     * context by context.
+     */
+    @Override
+    public List<Decision<P>> getDecisionBatch(final Iterable<? extends C> contexts) {
+        final List<C> list = toList(contexts);
+        final int[] targets = new int[list.size()];
+        Arrays.fill(targets, FlowGraph.NONE);
+        final Memo[] memos = new Memo[list.size()];
+        for (int i = 0; i < memos.length; i++) {
+            memos[i] = newMemo();
+        }
+        findFirstTargets(list, memos, everyIndex(list.size()), graph.initialNode, targets);
+        final List<Decision<P>> decisions = new ArrayList<>(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            decisions.add(decisionAt(targets[i], list.get(i), memos[i]));
+        }
+        return decisions;
+    }
+
+    /**
+     * Like getDecisions for each of the contexts, walking the flow as getDecisionBatch does.
+     * The obligatory arrows are followed one after another even with a branch executor; use
+     * getDecisionsBatch(contexts, executor) to spread the contexts over threads instead.
+     */
+    @Override
+    public List<List<Decision<P>>> getDecisionsBatch(final Iterable<? extends C> contexts) {
+        final List<C> list = toList(contexts);
+        final List<Traversal> traversals = new ArrayList<>(list.size());
+        final List<List<Decision<P>>> decisions = new ArrayList<>(list.size());
+        final Memo[] memos = new Memo[list.size()];
+        for (final C context : list) {
+            final List<Decision<P>> contextDecisions = new ArrayList<>();
+            final Traversal traversal =
+                    new Traversal(context, traceMode, false, contextDecisions, null, null, null);
+            memos[traversals.size()] = traversal.memo;
+            traversals.add(traversal);
+            decisions.add(contextDecisions);
+        }
+        visitAll(list, memos, traversals, everyIndex(list.size()), graph.initialNode);
+        return decisions;
     }
 
     public Decision<P> continueFrom(final String decisionId, final C context) {
-        final AbstractNode node = nodeMap.get(decisionId);
-        if (node == null) {
+        final int node = graph.indexOf(decisionId);
+        if (node == FlowGraph.NONE) {
             throw new DecisionFlowException("Node not found.");
         }
-        if (!(node instanceof Target)) {
+        if (graph.nodeKinds[node] != FlowGraph.TARGET) {
             throw new DecisionFlowException("Not a decision.");
         }
+        final Element element = graph.elements[node];
         final List<Decision<P>> decisions = new ArrayList<>();
         final List<ElementDescriptor> descriptors = new ArrayList<>();
 
@@ -56,47 +361,47 @@ public final class DecisionFlow<C, P> implements DecisionMachine<C, P> {
 
             @Override
             public String getId() {
-                return node.getId();
+                return element.getId();
             }
 
             @Override
             public String getName() {
-                return node.getName();
+                return element.getName();
             }
 
             @Override
             public ElementType getType() {
-                return node.getType();
+                return element.getType();
             }
 
             @Override
             public Map<String, ?> getAttributes() {
-                return node.getAttributes();
+                return element.getAttributes();
             }
 
             @Override
             public String getExpression() {
-                return node.getExpression();
+                return element.getExpression();
             }
 
             @Override
             public String getSourceNodeId() {
-                return node.getSourceNodeId();
+                return element.getSourceNodeId();
             }
 
             @Override
             public String getDestinationNodeId() {
-                return node.getDestinationNodeId();
+                return element.getDestinationNodeId();
             }
 
             @Override
             public boolean isDefault() {
-                return node.isDefault();
+                return element.isDefault();
             }
 
             @Override
             public boolean isObligatory() {
-                return node.isObligatory();
+                return element.isObligatory();
             }
 
             @Override
@@ -119,517 +424,870 @@ public final class DecisionFlow<C, P> implements DecisionMachine<C, P> {
 
     public Decision<P> continueFrom(final Decision<P> decision, final C context) {
 
-        final AbstractNode node = nodeMap.get(decision.getId());
-        if (node == null) {
+        final int node = graph.indexOf(decision.getId());
+        if (node == FlowGraph.NONE) {
             throw new DecisionFlowException("Node not found.");
         }
-        if (node.getArrows().size() == 0) {
+        if (graph.arrowsFrom(node) == 0) {
             return null;
         }
 
-        if (node.getArrows().size() > 1) {
+        if (graph.arrowsFrom(node) > 1) {
             throw new DecisionFlowException("Multiple paths found to continue from.");
         }
 
-        final int oldSize = decision.getDecisions().size();
-        getDecisions(context, node.getArrows().get(0).getDestination(),
-                decision.getDecisions(), decision.getDecisionPath(), true);
-        final int newSize = decision.getDecisions().size();
+        // decisions of this flow may be shared between threads and are left as they are,
+        // the chain goes on in a copy of theirs
+        final boolean ownDecision = decision instanceof SingleDecision
+                || decision instanceof DecisionFlow.TracedDecision;
+        final List<Decision<P>> decisions = ownDecision
+                ? new ArrayList<>(decision.getDecisions())
+                : decision.getDecisions();
+        final List<ElementDescriptor> path = ownDecision
+                ? new ArrayList<>(decision.getDecisionPath())
+                : decision.getDecisionPath();
+        final int oldSize = decisions.size();
+        new Traversal(context, TraceMode.FULL, true, decisions, path, null, null)
+                .visit(graph.arrowDestinations[graph.firstArrows[node]]);
+        final int newSize = decisions.size();
         return (oldSize < newSize)
-                ? decision.getDecisions().get(newSize - 1)
+                ? decisions.get(newSize - 1)
                 : null;
     }
 
-    private void load(final DecisionFlowDescriber describer) {
-        final Collection<ElementDescriptor> arrows = new ArrayList<>();
-        describer.getElements(new Callback() {
-            @Override
-            public void newElement(final ElementDescriptor elementDescriptor) {
-                switch (elementDescriptor.getType()) {
-                    case INITIAL:
-                        if (initialNode != null) {
-                            throw new DecisionFlowException(
-                                    "Multiple initial nodes found.");
-                        }
-                        final InitialNode initNode = new InitialNode(elementDescriptor);
-                        initialNode = initNode;
-                        nodeMap.put(initNode.getId(), initNode);
-                        break;
-                    case SWITCH:
-                        final Switch switchNode = new Switch(elementDescriptor);
-                        nodeMap.put(switchNode.getId(), switchNode);
-                        break;
-                    case RANDOM_SWITCH:
-                        final RandomSwitch randomSwitchNode = new RandomSwitch(elementDescriptor);
-                        nodeMap.put(randomSwitchNode.getId(), randomSwitchNode);
-                        break;
-                    case TARGET:
-                        final Target targetNode = new Target(elementDescriptor);
-                        nodeMap.put(targetNode.getId(), targetNode);
-                        break;
-                    case ARROW:
-                        arrows.add(elementDescriptor);
-                        break;
-                    default:
-                        throw new DecisionFlowException(
-                                String.format(
-                                        "Unsupported element type: %s",
-                                        elementDescriptor.getType()));
-                }
+    private Decision<P>[] createConstantDecisions() {
+        @SuppressWarnings("unchecked")
+        final Decision<P>[] decisions = (Decision<P>[]) new Decision<?>[graph.nodeCount];
+        for (int n = 0; n < graph.nodeCount; n++) {
+            if (graph.nodeKinds[n] == FlowGraph.TARGET
+                    && graph.nodeExpressions[n].isConstant()
+                    && graph.targetAttributes[n].isConstant()) {
+                @SuppressWarnings("unchecked")
+                final P payload = (P) graph.nodeExpressions[n].getConstantValue();
+                decisions[n] = new SingleDecision<>(
+                        graph.elements[n], payload, graph.targetAttributes[n].eval(null, null));
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * Gives each pure expression of the graph the slot of its normalised text.
+     */
+    private Map<ExpressionHolder, Integer> createMemoSlots() {
+        if (pureMethods == null) {
+            return null;
+        }
+        final Map<String, Integer> keys = new HashMap<>();
+        final Map<ExpressionHolder, Integer> slots = new IdentityHashMap<>();
+        graph.forEachExpression(holder -> {
+            final String key = holder.pureKey(pureMethods);
+            if (key != null) {
+                slots.put(holder, keys.computeIfAbsent(key, k -> keys.size()));
             }
         });
+        return slots;
+    }
+
+    /**
+     * The property paths and methods of the context that the expressions of the flow read
+     * or call, as found when the flow was loaded. With no method calls, a context that has
+     * just these properties filled in gets the same decisions as a full one.
+     */
+    public ContextDependencies getContextDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * The context dependencies of each node by its id, in the order the nodes were loaded.
+     * Those of a node cover its own expression, the key of a sticky random switch, the
+     * attributes of a target and the labels of the arrows leaving the node.
+     */
+    public Map<String, ContextDependencies> getNodeDependencies() {
+        return nodeDependencies;
+    }
 
-        if (initialNode == null) {
-            throw new DecisionFlowException("No initial node found.");
-        }
-
-        for (final ElementDescriptor arrowDescriptor : arrows) {
-            final AbstractNode srcNode = nodeMap.get(arrowDescriptor.getSourceNodeId());
-            if (srcNode == null) {
-                throw new DecisionFlowException(
-                        String.format("Source node not found (%s->%s).",
-                                arrowDescriptor.getName(),
-                                arrowDescriptor.getSourceNodeId()));
-            }
-            final AbstractNode dstNode =
-                    nodeMap.get(arrowDescriptor.getDestinationNodeId());
-            if (dstNode == null) {
-                throw new DecisionFlowException(
-                        String.format("Destination node not found (%s->%s).",
-                                arrowDescriptor.getName(),
-                                arrowDescriptor.getDestinationNodeId()));
-            }
-            final Arrow arrow = new Arrow(arrowDescriptor, dstNode);
-            srcNode.arrows.add(arrow);
-        }
-        for (AbstractNode node : nodeMap.values()) {
-            Collections.sort(node.getArrows(), new Comparator<Arrow>() {
-                @Override
-                public int compare(Arrow o1, Arrow o2) {
-                    return o1.getArrowType().ordinal() - o2.getArrowType().ordinal();
+    private Map<String, ContextDependencies> analyseNodeDependencies() {
+        final Map<String, ContextDependencies> byNode = new LinkedHashMap<>();
+        for (int n = 0; n < graph.nodeCount; n++) {
+            final ContextDependencies.Collector collector = new ContextDependencies.Collector();
+            if (graph.randomSwitches[n] == null) {
+                addAst(collector, graph.nodeExpressions[n]);
+            } else if (graph.randomSwitches[n].key != null) {
+                // the switch keeps only the text of its key
+                addAst(collector, new ExpressionHolder(
+                        graph.randomSwitches[n].key, expressionParser, evaluationContext));
+            }
+            if (graph.targetAttributes[n] != null) {
+                for (final ExpressionHolder holder
+                        : graph.targetAttributes[n].expressions.values()) {
+                    addAst(collector, holder);
                 }
-            });
-            if (node instanceof RandomSwitch) {
-                ((RandomSwitch) node).ignite();
             }
+            for (int a = graph.firstArrows[n]; a < graph.firstArrows[n + 1]; a++) {
+                addAst(collector, graph.arrowExpressions[a]);
+            }
+            byNode.put(graph.elements[n].getId(), collector.toDependencies());
+        }
+        return Collections.unmodifiableMap(byNode);
+    }
 
+    private static void addAst(
+            final ContextDependencies.Collector collector,
+            final ExpressionHolder holder) {
+        if (holder != null) {
+            collector.add(holder.getAst());
         }
     }
 
-    private List<Decision<P>> getDecisions(
-            final C context,
-            final boolean stopAtFirstFound) {
-        final List<ElementDescriptor> path = new ArrayList<>();
-        final List<Decision<P>> decisions = new ArrayList<>();
-        getDecisions(context, initialNode, decisions, path, stopAtFirstFound);
-        return decisions;
+    private static ContextDependencies combine(
+            final Iterable<ContextDependencies> dependencies) {
+        final ContextDependencies.Collector collector = new ContextDependencies.Collector();
+        dependencies.forEach(collector::add);
+        return collector.toDependencies();
     }
 
-    private void getDecisions(
-            final C context,
-            final AbstractNode currentNode,
-            final List<Decision<P>> accDecisions,
-            final List<ElementDescriptor> accPath,
-            final boolean stopAtFirstFound) {
-
-        if (accPath.contains(currentNode)) {
-            throw new DecisionFlowException(
-                    String.format("Loops detected in the decision flow (%s)",
-                            currentNode.getName()));
-        }
-        accPath.add(currentNode);
-        if (currentNode instanceof Target) {
-            final List<ElementDescriptor> snapshotPath = new ArrayList<>(accPath);
-            final List<Decision<P>> snapshotDecisions = new ArrayList<>(accDecisions);
-            @SuppressWarnings({ "unchecked"})
-            final P payload = (P) ((Target) currentNode).getExpressionHolder().eval(context);
-            Map<String, ?> attributes = evalAttributes(context, currentNode.getAttributes());
-            if (payload instanceof OnAttributesCallback) {
-                ((OnAttributesCallback) payload).onAttributes(attributes);
+    /**
+     * The nodes at which a walk may come to depend on more than the context: random switches
+     * that are not sticky, and nodes with an expression, sticky key, outgoing arrow label or
+     * target attribute that is not pure as far as the given methods go.
+     */
+    boolean[] impureNodes(final Set<String> pureMethodNames) {
+        final boolean[] impure = new boolean[graph.nodeCount];
+        for (int n = 0; n < graph.nodeCount; n++) {
+            final FlowGraph.RandomSwitch randomSwitch = graph.randomSwitches[n];
+            if (randomSwitch != null) {
+                // the switch keeps only the text of its key
+                impure[n] = randomSwitch.key == null
+                        || !new ExpressionHolder(randomSwitch.key, expressionParser,
+                                evaluationContext).isPure(pureMethodNames);
+            } else {
+                impure[n] = graph.nodeExpressions[n] != null
+                        && !graph.nodeExpressions[n].isPure(pureMethodNames);
             }
-            final Decision<P> decision = new Decision<P>() {
-
-                @Override
-                public String getName() {
-                    return currentNode.getName();
+            if (graph.targetAttributes[n] != null) {
+                for (final ExpressionHolder holder
+                        : graph.targetAttributes[n].expressions.values()) {
+                    impure[n] |= !holder.isPure(pureMethodNames);
                 }
+            }
+            for (int a = graph.firstArrows[n]; a < graph.firstArrows[n + 1]; a++) {
+                impure[n] |= graph.arrowKinds[a] == FlowGraph.ORDINARY
+                        && !graph.arrowExpressions[a].isPure(pureMethodNames);
+            }
+        }
+        return impure;
+    }
 
-                @Override
-                public Map<String, ?> getAttributes() {
-                    return attributes;
-                }
+    private int countSlots() {
+        return (memoSlots == null) ? 0 : (int) memoSlots.values().stream().distinct().count();
+    }
 
-                @Override
-                public List<ElementDescriptor> getDecisionPath() {
-                    return snapshotPath;
-                }
+    private Memo newMemo() {
+        return (memoSize == 0) ? null : new Memo(memoSlots, memoSize);
+    }
 
-                @Override
-                public P getPayload() {
-                    return payload;
-                }
+    /**
+     * One evaluation context shared by all the expressions of the flow, so the reflective
+     * accessors and resolvers (and their caches) are created once instead of per expression.
+     * Everything is initialised eagerly and the root object is passed with each evaluation.
+     * Expressions that set variables are rejected while loading, as they would write into
+     * this context, so that nothing a call does is seen by another one.
+     */
+    private static EvaluationContext createEvaluationContext() {
+        final StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setPropertyAccessors(
+                new ArrayList<>(Collections.singletonList(new ReflectivePropertyAccessor())));
+        context.setMethodResolvers(
+                new ArrayList<>(Collections.singletonList(new ReflectiveMethodResolver())));
+        context.setConstructorResolvers(
+                new ArrayList<>(Collections.singletonList(new ReflectiveConstructorResolver())));
+        context.setTypeLocator(new StandardTypeLocator(DecisionFlow.class.getClassLoader()));
+        context.setTypeConverter(new StandardTypeConverter());
+        return context;
+    }
 
-                @Override
-                public String getId() {
-                    return currentNode.getId();
+    /**
+     * Walks the flow the same way getDecisions does, but stops as soon as a target is reached
+     * and keeps no record of the way there.
+     */
+    private int findFirstTarget(
+            final C context,
+            final int node,
+            final Checkpoint checkpoint,
+            final Memo memo) {
+        if (checkpoint != null) {
+            checkpoint.beforeNode(node);
+        }
+        final byte kind = graph.nodeKinds[node];
+        if (kind == FlowGraph.TARGET) {
+            return node;
+        }
+        Object switchExprResult = null;
+        if (kind == FlowGraph.SWITCH || kind == FlowGraph.RANDOM_SWITCH) {
+            switchExprResult = Memo.eval(memo, graph.nodeExpressions[node], context);
+            if (checkpoint != null && !graph.nodeExpressions[node].isConstant()) {
+                checkpoint.evaluated(1);
+            }
+        }
+        final int end = graph.firstArrows[node + 1];
+        for (int arrow = graph.firstArrows[node]; arrow < end; arrow++) {
+            if (graph.arrowKinds[arrow] == FlowGraph.OBLIGATORY) {
+                final int target = findFirstTarget(
+                        context, graph.arrowDestinations[arrow], checkpoint, memo);
+                if (target != FlowGraph.NONE) {
+                    return target;
                 }
+            }
+        }
+        final int arrow = choose(node, switchExprResult, context, memo);
+        if (checkpoint != null) {
+            checkpoint.evaluated(graph.dispatches[node].evaluations(arrow));
+        }
+        return (arrow == FlowGraph.NONE)
+                ? FlowGraph.NONE
+                : findFirstTarget(context, graph.arrowDestinations[arrow], checkpoint, memo);
+    }
 
-                @Override
-                public ElementType getType() {
-                    return currentNode.getType();
+    /**
+     * findFirstTarget for a group of contexts, given by their indices, each with its own
+     * memo. The target found for each of them is put in targets.
+     */
+    private void findFirstTargets(
+            final List<C> contexts,
+            final Memo[] memos,
+            final int[] group,
+            final int node,
+            final int[] targets) {
+        if (graph.nodeKinds[node] == FlowGraph.TARGET) {
+            for (final int i : group) {
+                targets[i] = node;
+            }
+            return;
+        }
+        Object[] values = switchValues(contexts, memos, group, node);
+        int[] remaining = group;
+        final int end = graph.firstArrows[node + 1];
+        for (int arrow = graph.firstArrows[node]; arrow < end; arrow++) {
+            if (graph.arrowKinds[arrow] != FlowGraph.OBLIGATORY) {
+                continue;
+            }
+            findFirstTargets(
+                    contexts, memos, remaining, graph.arrowDestinations[arrow], targets);
+            int unresolved = 0;
+            for (final int i : remaining) {
+                unresolved += (targets[i] == FlowGraph.NONE) ? 1 : 0;
+            }
+            if (unresolved == 0) {
+                return;
+            }
+            if (unresolved < remaining.length) {
+                final int[] stillRemaining = new int[unresolved];
+                final Object[] stillValues = new Object[unresolved];
+                int k = 0;
+                for (int j = 0; j < remaining.length; j++) {
+                    if (targets[remaining[j]] == FlowGraph.NONE) {
+                        stillRemaining[k] = remaining[j];
+                        stillValues[k++] = values[j];
+                    }
                 }
+                remaining = stillRemaining;
+                values = stillValues;
+            }
+        }
+        final int[][] byArrow = partition(contexts, memos, remaining, values, node);
+        for (int arrow = graph.firstArrows[node]; arrow < end; arrow++) {
+            final int[] subgroup = byArrow[arrow - graph.firstArrows[node]];
+            if (subgroup != null) {
+                findFirstTargets(
+                        contexts, memos, subgroup, graph.arrowDestinations[arrow], targets);
+            }
+        }
+    }
 
-                @Override
-                public String getExpression() {
-                    return currentNode.getExpression();
-                }
+    /**
+     * Traversal.visit for a group of contexts, given by their indices.
+     */
+    private void visitAll(
+            final List<C> contexts,
+            final Memo[] memos,
+            final List<Traversal> traversals,
+            final int[] group,
+            final int node) {
+        for (final int i : group) {
+            traversals.get(i).record(node);
+        }
+        if (graph.nodeKinds[node] == FlowGraph.TARGET) {
+            for (final int i : group) {
+                traversals.get(i).decide(node);
+            }
+        }
+        final Object[] values = switchValues(contexts, memos, group, node);
+        final int end = graph.firstArrows[node + 1];
+        for (int arrow = graph.firstArrows[node]; arrow < end; arrow++) {
+            if (graph.arrowKinds[arrow] == FlowGraph.OBLIGATORY) {
+                followAll(contexts, memos, traversals, group, arrow);
+            }
+        }
+        final int[][] byArrow = partition(contexts, memos, group, values, node);
+        for (int arrow = graph.firstArrows[node]; arrow < end; arrow++) {
+            final int[] subgroup = byArrow[arrow - graph.firstArrows[node]];
+            if (subgroup != null) {
+                followAll(contexts, memos, traversals, subgroup, arrow);
+            }
+        }
+    }
 
-                @Override
-                public String getSourceNodeId() {
-                    return currentNode.getSourceNodeId();
-                }
+    private void followAll(
+            final List<C> contexts,
+            final Memo[] memos,
+            final List<Traversal> traversals,
+            final int[] group,
+            final int arrow) {
+        for (final int i : group) {
+            traversals.get(i).record(graph.nodeCount + arrow);
+        }
+        visitAll(contexts, memos, traversals, group, graph.arrowDestinations[arrow]);
+    }
 
-                @Override
-                public String getDestinationNodeId() {
-                    return currentNode.getDestinationNodeId();
-                }
+    private Object[] switchValues(
+            final List<C> contexts,
+            final Memo[] memos,
+            final int[] group,
+            final int node) {
+        final Object[] values = new Object[group.length];
+        final byte kind = graph.nodeKinds[node];
+        if (kind == FlowGraph.SWITCH || kind == FlowGraph.RANDOM_SWITCH) {
+            final ExpressionHolder expression = graph.nodeExpressions[node];
+            for (int j = 0; j < group.length; j++) {
+                values[j] = Memo.eval(memos[group[j]], expression, contexts.get(group[j]));
+            }
+        }
+        return values;
+    }
 
-                @Override
-                public boolean isDefault() {
-                    return currentNode.isDefault();
-                }
+    /**
+     * Splits the group by the arrow chosen by each context, keeping their order. The result
+     * is indexed by the position of the arrow among the arrows of the node, and holds null
+     * for the arrows no context takes.
+     */
+    private int[][] partition(
+            final List<C> contexts,
+            final Memo[] memos,
+            final int[] group,
+            final Object[] values,
+            final int node) {
+        final int first = graph.firstArrows[node];
+        final int[] chosen = new int[group.length];
+        final int[] counts = new int[graph.arrowsFrom(node)];
+        for (int j = 0; j < group.length; j++) {
+            chosen[j] = choose(node, values[j], contexts.get(group[j]), memos[group[j]]);
+            if (chosen[j] != FlowGraph.NONE) {
+                counts[chosen[j] - first]++;
+            }
+        }
+        final int[][] byArrow = new int[counts.length][];
+        for (int a = 0; a < counts.length; a++) {
+            byArrow[a] = (counts[a] == 0) ? null : new int[counts[a]];
+            counts[a] = 0;
+        }
+        for (int j = 0; j < group.length; j++) {
+            if (chosen[j] != FlowGraph.NONE) {
+                final int a = chosen[j] - first;
+                byArrow[a][counts[a]++] = group[j];
+            }
+        }
+        return byArrow;
+    }
 
-                @Override
-                public boolean isObligatory() {
-                    return currentNode.isObligatory();
-                }
+    private static <C> List<C> toList(final Iterable<? extends C> contexts) {
+        final List<C> list = new ArrayList<>();
+        for (final C context : contexts) {
+            list.add(context);
+        }
+        return list;
+    }
+
+    private static int[] everyIndex(final int size) {
+        final int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * The arrow taken from the node besides the obligatory ones: the first ordinary arrow
+     * matching the value of the switch, or else the default arrow.
+     */
+    private int choose(
+            final int node,
+            final Object switchExprResult,
+            final C context,
+            final Memo memo) {
+        final int arrow = graph.dispatches[node].find(switchExprResult, context, memo);
+        return (arrow != FlowGraph.NONE) ? arrow : graph.defaultArrows[node];
+    }
+
+    /**
+     * The state of one traversal. The path keeps growing across branches, so the path of each
+     * decision holds every element visited before it. A branch run on the branch executor is
+     * deferred: it keeps the elements it visits and the decisions it reaches to itself, until
+     * they are replayed in order into the traversal it was forked from.
+     */
+    private final class Traversal {
+        private final C context;
+        private final TraceMode traceMode;
+        private final boolean stopAtFirstFound;
+        private final List<Decision<P>> decisions;
+        private final List<ElementDescriptor> path;
+        private final Executor executor;
+        private final Checkpoint checkpoint;
+        private final Memo memo;
+        private final List<PendingDecision> pending;
+        private int[] trace;
+        private int traceLength;
+
+        private Traversal(
+                final C context,
+                final TraceMode traceMode,
+                final boolean stopAtFirstFound,
+                final List<Decision<P>> decisions,
+                final List<ElementDescriptor> path,
+                final Executor executor,
+                final Checkpoint checkpoint) {
+            this.context = context;
+            this.traceMode = traceMode;
+            this.stopAtFirstFound = stopAtFirstFound;
+            this.decisions = decisions;
+            this.path = (path == null && traceMode == TraceMode.FULL) ? new ArrayList<>() : path;
+            this.executor = executor;
+            this.checkpoint = checkpoint;
+            this.memo = newMemo();
+            this.pending = null;
+            this.trace = (traceMode == TraceMode.COMPACT) ? new int[16] : null;
+        }
+
+        private Traversal(final Traversal parent) {
+            this.context = parent.context;
+            this.traceMode = parent.traceMode;
+            this.stopAtFirstFound = false;
+            this.decisions = null;
+            this.path = null;
+            this.executor = parent.executor;
+            this.checkpoint = parent.checkpoint;
+            this.memo = parent.memo;
+            this.pending = new ArrayList<>();
+            this.trace = new int[16];
+        }
 
-                @Override
-                public List<Decision<P>> getDecisions() {
-                    if (!snapshotDecisions.contains(this)) {
-                        snapshotDecisions.add(this);
+        private void record(final int element) {
+            if (pending != null) {
+                if (traceLength == trace.length) {
+                    trace = Arrays.copyOf(trace, 2 * traceLength);
+                }
+                trace[traceLength++] = element;
+                return;
+            }
+            switch (traceMode) {
+                case FULL:
+                    path.add(graph.elements[element]);
+                    break;
+                case COMPACT:
+                    if (traceLength == trace.length) {
+                        trace = Arrays.copyOf(trace, 2 * traceLength);
                     }
-                    return snapshotDecisions;
+                    trace[traceLength++] = element;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void visit(final int currentNode) {
+            if (checkpoint != null) {
+                checkpoint.beforeNode(currentNode);
+            }
+            record(currentNode);
+            final byte kind = graph.nodeKinds[currentNode];
+            if (kind == FlowGraph.TARGET) {
+                decide(currentNode);
+                if (stopAtFirstFound) {
+                    return;
+                }
+            }
+            Object switchExprResult = null;
+            if (kind == FlowGraph.SWITCH || kind == FlowGraph.RANDOM_SWITCH) {
+                switchExprResult = Memo.eval(memo, graph.nodeExpressions[currentNode], context);
+                if (checkpoint != null && !graph.nodeExpressions[currentNode].isConstant()) {
+                    checkpoint.evaluated(1);
                 }
-            };
+            }
+            followObligatory(currentNode);
+            final int chosenArrow = choose(currentNode, switchExprResult, context, memo);
+            if (checkpoint != null) {
+                checkpoint.evaluated(graph.dispatches[currentNode].evaluations(chosenArrow));
+            }
+            if (chosenArrow != FlowGraph.NONE) {
+                follow(chosenArrow);
+            }
+        }
+
+        private void decide(final int currentNode) {
+            @SuppressWarnings({ "unchecked"})
+            final P payload = (P) Memo.eval(memo, graph.nodeExpressions[currentNode], context);
+            final Map<String, ?> attributes =
+                    graph.targetAttributes[currentNode].eval(context, memo);
+            if (checkpoint != null) {
+                checkpoint.evaluated(
+                        (graph.nodeExpressions[currentNode].isConstant() ? 0 : 1)
+                                + graph.targetAttributes[currentNode].expressions.size());
+            }
+            if (payload instanceof OnAttributesCallback) {
+                ((OnAttributesCallback) payload).onAttributes(attributes);
+            }
+            addDecision(currentNode, payload, attributes);
+        }
 
-            accDecisions.add(decision);
-            if (stopAtFirstFound) {
+        private void addDecision(
+                final int currentNode,
+                final P payload,
+                final Map<String, ?> attributes) {
+            if (pending != null) {
+                pending.add(new PendingDecision(currentNode, payload, attributes, traceLength));
                 return;
             }
+            // the trace is only ever appended to, so sharing it up to its current length
+            // is as good as a copy
+            decisions.add(new TracedDecision(
+                    graph.elements[currentNode],
+                    payload,
+                    attributes,
+                    new ArrayList<>(decisions),
+                    (traceMode == TraceMode.FULL) ? new ArrayList<>(path) : null,
+                    trace,
+                    traceLength));
         }
-        Arrow defaultArrow = null;
-        Object switchExprResult = null;
-        if (currentNode instanceof Switch) {
-            switchExprResult = ((Switch) currentNode).getExpressionHolder().eval(context);
-        }
-        for (Arrow arrow : currentNode.getArrows()) {
-            switch (arrow.arrowType) {
-            case DEFAULT:
-                if (defaultArrow != null) {
-                    throw new DecisionFlowException(
-                            String.format(
-                                    "Multiple default paths detected from node %s.",
-                                    currentNode.getName()));
+
+        private void follow(final int arrow) {
+            record(graph.nodeCount + arrow);
+            visit(graph.arrowDestinations[arrow]);
+        }
+
+        /**
+         * Follows the obligatory arrows of the node, which are next to each other in the
+         * arrows of the node. With an executor, all but the first one are forked as deferred
+         * branches, and replayed in order once the first one is done.
+         */
+        private void followObligatory(final int currentNode) {
+            final int end = graph.firstArrows[currentNode + 1];
+            int first = graph.firstArrows[currentNode];
+            while (first < end && graph.arrowKinds[first] != FlowGraph.OBLIGATORY) {
+                first++;
+            }
+            int last = first;
+            while (last < end && graph.arrowKinds[last] == FlowGraph.OBLIGATORY) {
+                last++;
+            }
+            if (executor == null || stopAtFirstFound || last - first < 2) {
+                for (int arrow = first; arrow < last; arrow++) {
+                    follow(arrow);
                 }
-                defaultArrow = arrow;
-                break;
-            case ORDINARY:
-                final Object arrowExprResult = arrow.getExpressionHolder().eval(context);
-                if (areEqual(switchExprResult, arrowExprResult)) {
-                    accPath.add(arrow);
-                    getDecisions(
-                            context,
-                            arrow.getDestination(),
-                            accDecisions,
-                            accPath,
-                            stopAtFirstFound);
-                    return;
+                return;
+            }
+            final List<Branch> branches = new ArrayList<>(last - first - 1);
+            for (int arrow = first + 1; arrow < last; arrow++) {
+                final Branch branch = new Branch(new Traversal(this), arrow);
+                branches.add(branch);
+                try {
+                    executor.execute(branch);
+                } catch (RejectedExecutionException e) {
+                    // run by this thread when joined
+                }
+            }
+            try {
+                follow(first);
+                for (final Branch branch : branches) {
+                    branch.join();
+                    replay(branch.traversal);
                 }
-                break;
-            case OBLIGATORY:
-                accPath.add(arrow);
-                getDecisions(
-                        context,
-                        arrow.getDestination(),
-                        accDecisions,
-                        accPath,
-                        stopAtFirstFound);
+            } catch (RuntimeException | Error e) {
+                for (final Branch branch : branches) {
+                    branch.cancel();
+                }
+                throw e;
             }
         }
-        if (defaultArrow != null) {
-            accPath.add(defaultArrow);
-            getDecisions(context,
-                         defaultArrow.getDestination(),
-                         accDecisions,
-                         accPath,
-                         stopAtFirstFound);
+
+        private void replay(final Traversal branch) {
+            int position = 0;
+            for (final PendingDecision decision : branch.pending) {
+                for (; position < decision.traceLength; position++) {
+                    record(branch.trace[position]);
+                }
+                addDecision(decision.node, decision.payload, decision.attributes);
+            }
+            for (; position < branch.traceLength; position++) {
+                record(branch.trace[position]);
+            }
         }
     }
 
-    private boolean areEqual(final Object nodeExprResult, final Object arrowExprResult) {
-        if (nodeExprResult == null) {
-            return (arrowExprResult == null);
+    /**
+     * A decision reached by a deferred traversal, with the length of its trace at the time.
+     */
+    private final class PendingDecision {
+        private final int node;
+        private final P payload;
+        private final Map<String, ?> attributes;
+        private final int traceLength;
+
+        private PendingDecision(
+                final int node,
+                final P payload,
+                final Map<String, ?> attributes,
+                final int traceLength) {
+            this.node = node;
+            this.payload = payload;
+            this.attributes = attributes;
+            this.traceLength = traceLength;
         }
-        return nodeExprResult.equals(arrowExprResult);
     }
 
-    private Map<String, ?> evalAttributes(final C context, final Map<String, ?> map) {
+    /**
+     * An obligatory arrow followed by a deferred traversal. It is run once, by the executor
+     * or else by the thread joining it, so that joining never waits for a branch the
+     * executor has not got round to.
+     */
+    private final class Branch implements Runnable {
+        private final Traversal traversal;
+        private final int arrow;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Throwable failure;
+
+        private Branch(final Traversal traversal, final int arrow) {
+            this.traversal = traversal;
+            this.arrow = arrow;
+        }
 
-        final Map<String, Object> attributes = new HashMap<>();
-        for (final String key: map.keySet()) {
-            final String value = (String) map.get(key);
-            if (value == null) {
-                continue;
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
             }
             try {
-                final Expression expression = ExpressionHolder.EXPRESSION_PARSER
-                        .parseExpression(value);
-                attributes.put(key, expression.getValue(context));
-            } catch (RuntimeException e) {
-                attributes.put(key, value);
+                traversal.follow(arrow);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                done.countDown();
             }
         }
-        return attributes;
-    }
 
-    private interface ElementWithExpressionHolder {
-        ExpressionHolder getExpressionHolder();
-    }
+        private void join() {
+            run();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DecisionFlowException("Interrupted while following a branch.", e);
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
 
-    private abstract static class AbstractElement implements ElementDescriptor {
-        private final ElementDescriptor elementDescriptor;
+        private void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                done.countDown();
+            }
+        }
+    }
 
-        AbstractElement(final ElementDescriptor elementDescriptor) {
-            this.elementDescriptor = elementDescriptor;
+    /**
+     * A decision returned by getDecisions. With COMPACT tracing the path is kept as element
+     * indices until getDecisionPath() is called. Safe to share between threads, its lists
+     * cannot be changed.
+     */
+    private final class TracedDecision implements Decision<P> {
+        private final Element element;
+        private final P payload;
+        private final Map<String, ?> attributes;
+        private final List<Decision<P>> decisions;
+        private final int[] trace;
+        private final int traceLength;
+        private volatile List<ElementDescriptor> path;
+
+        private TracedDecision(
+                final Element element,
+                final P payload,
+                final Map<String, ?> attributes,
+                final List<Decision<P>> decisions,
+                final List<ElementDescriptor> path,
+                final int[] trace,
+                final int traceLength) {
+            this.element = element;
+            this.payload = payload;
+            this.attributes = attributes;
+            decisions.add(this);
+            this.decisions = Collections.unmodifiableList(decisions);
+            this.path = (path == null) ? null : Collections.unmodifiableList(path);
+            this.trace = trace;
+            this.traceLength = traceLength;
         }
 
         @Override
         public String getId() {
-            return elementDescriptor.getId();
+            return element.getId();
         }
 
         @Override
         public String getName() {
-            return elementDescriptor.getName();
+            return element.getName();
         }
 
         @Override
-        public Map<String, ?> getAttributes() {
-            return elementDescriptor.getAttributes();
+        public ElementType getType() {
+            return element.getType();
         }
 
         @Override
-        public ElementType getType() {
-            return elementDescriptor.getType();
+        public Map<String, ?> getAttributes() {
+            return attributes;
         }
 
         @Override
         public String getExpression() {
-            return elementDescriptor.getExpression();
+            return element.getExpression();
         }
 
         @Override
         public String getSourceNodeId() {
-            return elementDescriptor.getSourceNodeId();
+            return element.getSourceNodeId();
         }
 
         @Override
         public String getDestinationNodeId() {
-            return elementDescriptor.getDestinationNodeId();
+            return element.getDestinationNodeId();
         }
 
         @Override
         public boolean isDefault() {
-            return elementDescriptor.isDefault();
+            return element.isDefault();
         }
 
         @Override
         public boolean isObligatory() {
-            return elementDescriptor.isObligatory();
+            return element.isObligatory();
         }
 
         @Override
-        public String toString() {
-            final String name = getName();
-            String expression = null;
-            if (this instanceof ElementWithExpressionHolder) {
-                expression = ((ElementWithExpressionHolder) this).getExpressionHolder().getExpression();
-            }
-            if (name != null && name.equals(expression)) {
-                expression = null;
-            }
-            String kind = getClass().getSimpleName();
-            if (this instanceof Arrow) {
-                if (ArrowType.OBLIGATORY.equals(((Arrow) this).getArrowType())) {
-                    kind = kind + "(always)";
-                }
-            }
-            return kind
-                    + ((name != null) ? ":" + name : "")
-                    + ((expression != null) ? ":" + expression : "");
+        public P getPayload() {
+            return payload;
         }
-    }
 
-    private abstract static class AbstractNode extends AbstractElement {
-        private List<Arrow> arrows = new ArrayList<>();
-        private AbstractNode(final ElementDescriptor elementDescriptor) {
-            super(elementDescriptor);
+        @Override
+        public List<ElementDescriptor> getDecisionPath() {
+            List<ElementDescriptor> result = path;
+            if (result == null) {
+                // threads racing here build equal paths, any of them will do
+                result = new ArrayList<>(traceLength);
+                for (int i = 0; i < traceLength; i++) {
+                    result.add(graph.elements[trace[i]]);
+                }
+                result = Collections.unmodifiableList(result);
+                path = result;
+            }
+            return result;
         }
 
-        List<Arrow> getArrows() {
-            return arrows;
+        @Override
+        public List<Decision<P>> getDecisions() {
+            return decisions;
         }
     }
 
-    private static class InitialNode extends AbstractNode {
-        InitialNode(final ElementDescriptor elementDescriptor) {
-            super(elementDescriptor);
+    /**
+     * A decision returned by getDecision.
+     */
+    private static final class SingleDecision<P> implements Decision<P> {
+        private final Element element;
+        private final P payload;
+        private final Map<String, ?> attributes;
+        private final List<Decision<P>> decisions;
+
+        private SingleDecision(
+                final Element element,
+                final P payload,
+                final Map<String, ?> attributes) {
+            this.element = element;
+            this.payload = payload;
+            this.attributes = attributes;
+            this.decisions = Collections.singletonList(this);
         }
-    }
-
-    private static class ExpressionHolder {
-        private static final ExpressionParser EXPRESSION_PARSER =
-                new SpelExpressionParser();
 
-        private String expression;
-        private Expression parsedExpression;
-
-        private ExpressionHolder(final String expression) {
-            setExpression(expression);
-        }
-
-        private ExpressionHolder() {
-        }
-
-        private String getExpression() {
-            return expression;
-        }
-
-        <C> Object eval(C context) {
-            return parsedExpression.getValue(context);
+        @Override
+        public String getId() {
+            return element.getId();
         }
 
-        private void setExpression(final String expression) {
-            this.expression = expression;
-            parsedExpression = EXPRESSION_PARSER.parseExpression(expression);
+        @Override
+        public String getName() {
+            return element.getName();
         }
 
-        private void prepareExpression(final String expression) {
-            parsedExpression = EXPRESSION_PARSER.parseExpression(expression);
+        @Override
+        public ElementType getType() {
+            return element.getType();
         }
-    }
 
-    private static class Switch extends AbstractNode implements ElementWithExpressionHolder {
-        private final ExpressionHolder expressionHolder;
-        private Switch(final ElementDescriptor elementDescriptor) {
-            super(elementDescriptor);
-            this.expressionHolder = new ExpressionHolder(elementDescriptor.getExpression());
+        @Override
+        public Map<String, ?> getAttributes() {
+            return attributes;
         }
 
         @Override
-        public ExpressionHolder getExpressionHolder() {
-            return expressionHolder;
+        public String getExpression() {
+            return element.getExpression();
         }
-    }
 
-    private static class RandomSwitch extends Switch {
-        private ExpressionHolder randomisingExpressionHolder = null;
-
-        private RandomSwitch(final ElementDescriptor elementDescriptor) {
-            super(elementDescriptor);
+        @Override
+        public String getSourceNodeId() {
+            return element.getSourceNodeId();
         }
 
         @Override
-        public ExpressionHolder getExpressionHolder() {
-            if (randomisingExpressionHolder == null) {
-                throw new DecisionFlowException("Random switch not initialised.");
-            }
-            return randomisingExpressionHolder;
-        }
-
-        private void ignite() {
-            final Random random = new Random();
-            final Integer sumNonNulls = getArrows()
-                    .stream()
-                    .filter(a -> a.getExpressionHolder().getExpression() != null)
-                    .map(a -> Integer.valueOf(a.getExpressionHolder().getExpression()))
-                    .reduce(0, (a, b) -> a + b);
-            Integer sum = sumNonNulls;
-            final List<Arrow> defaultArrows = getArrows()
-                    .stream()
-                    .filter(a -> a.isDefault())
-                    .collect(Collectors.toList());
-            if (defaultArrows.size() > 1) {
-                throw new DecisionFlowException("Multiple default arrows found from a random switch.");
-            }
-            Arrow defaultArrow = null;
-            if (defaultArrows.size() > 0) {
-                defaultArrow = defaultArrows.get(0);
-                sum = (sumNonNulls > 100) ? sumNonNulls : 100;
-            }
-
-            final Integer[] flags = new Integer[sum];
-            int arrowIndex = 0;
-            int flagIndex = 0;
-            for (final Arrow arrow : getArrows()) {
-                final int weight =
-                        arrow.equals(defaultArrow)
-                        ? 100 - sumNonNulls
-                        : Integer.valueOf(arrow.getExpressionHolder().getExpression());
-                arrow.getExpressionHolder().prepareExpression(String.valueOf(arrowIndex));
-                for (int k = 0; k < weight; k++) {
-                    flags[flagIndex++] = arrowIndex;
-                }
-                arrowIndex++;
-            }
-            randomisingExpressionHolder = new ExpressionHolder() {
-                @Override
-                protected Object eval(Object context) {
-                    return flags[random.nextInt(flags.length)];
-                }
-            };
+        public String getDestinationNodeId() {
+            return element.getDestinationNodeId();
         }
-    }
 
-    private enum ArrowType {DEFAULT, OBLIGATORY, ORDINARY};
-    private static class Arrow extends AbstractElement implements ElementWithExpressionHolder {
-        private final ExpressionHolder expressionHolder;
-        private final AbstractNode destination;
-        private final ArrowType arrowType;
-        private Arrow(final ElementDescriptor elementDescriptor, final AbstractNode destination) {
-            super(elementDescriptor);
-            this.arrowType =
-                    elementDescriptor.isObligatory()
-                        ? ArrowType.OBLIGATORY
-                        : (elementDescriptor.isDefault() ? ArrowType.DEFAULT : ArrowType.ORDINARY);
-            this.destination = destination;
-            this.expressionHolder = new ExpressionHolder(elementDescriptor.getExpression());
+        @Override
+        public boolean isDefault() {
+            return element.isDefault();
         }
 
-        private AbstractNode getDestination() {
-            return destination;
-        }
         @Override
-        public ExpressionHolder getExpressionHolder() {
-            return expressionHolder;
+        public boolean isObligatory() {
+            return element.isObligatory();
         }
 
-        private ArrowType getArrowType() {
-            return arrowType;
+        @Override
+        public P getPayload() {
+            return payload;
         }
-    }
 
-    private static class Target extends AbstractNode implements ElementWithExpressionHolder {
-        private final ExpressionHolder expressionHolder;
-        private Target(final ElementDescriptor elementDescriptor) {
-            super(elementDescriptor);
-            this.expressionHolder = new ExpressionHolder(elementDescriptor.getExpression());
+        @Override
+        public List<ElementDescriptor> getDecisionPath() {
+            return Collections.emptyList();
         }
 
         @Override
-        public ExpressionHolder getExpressionHolder() {
-            return expressionHolder;
+        public List<Decision<P>> getDecisions() {
+            return decisions;
         }
     }
 }
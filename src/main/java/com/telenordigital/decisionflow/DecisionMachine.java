@@ -1,8 +1,65 @@
 package com.telenordigital.decisionflow;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 public interface DecisionMachine<C, P> {
+    /**
+     * The first decision reached. A DecisionFlow records no path for it, so its
+     * getDecisionPath() is empty; getDecisions, or getDecision with a TraceMode, has the path.
+     */
     Decision<P> getDecision(C context);
     List<Decision<P>> getDecisions(C context);
+
+    /**
+     * Returns getDecision(context) for each of the contexts, in the same order.
+     */
+    default List<Decision<P>> getDecisionBatch(final Iterable<? extends C> contexts) {
+        final List<Decision<P>> decisions = new ArrayList<>();
+        for (final C context : contexts) {
+            decisions.add(getDecision(context));
+        }
+        return decisions;
+    }
+
+    /**
+     * Returns getDecisions(context) for each of the contexts, in the same order.
+     */
+    default List<List<Decision<P>>> getDecisionsBatch(final Iterable<? extends C> contexts) {
+        final List<List<Decision<P>>> decisions = new ArrayList<>();
+        for (final C context : contexts) {
+            decisions.add(getDecisions(context));
+        }
+        return decisions;
+    }
+
+    /**
+     * getDecisionBatch split in chunks that run on the executor, e.g. a ForkJoinPool. The
+     * decisions come back in the order of the contexts.
+     */
+    default List<Decision<P>> getDecisionBatch(
+            final Iterable<? extends C> contexts,
+            final Executor executor) {
+        return ParallelBatches.inParallel(contexts, this::getDecisionBatch, executor);
+    }
+
+    default List<List<Decision<P>>> getDecisionsBatch(
+            final Iterable<? extends C> contexts,
+            final Executor executor) {
+        return ParallelBatches.inParallel(contexts, this::getDecisionsBatch, executor);
+    }
+
+    /**
+     * Maps the contexts to their decisions, passing them to getDecisionBatch a chunk at a time.
+     * The stream is parallel if the contexts are, and keeps their order if they have one.
+     */
+    default Stream<Decision<P>> getDecisionStream(final Stream<? extends C> contexts) {
+        return ParallelBatches.inChunks(contexts, this::getDecisionBatch);
+    }
+
+    default Stream<List<Decision<P>>> getDecisionsStream(final Stream<? extends C> contexts) {
+        return ParallelBatches.inChunks(contexts, this::getDecisionsBatch);
+    }
 }
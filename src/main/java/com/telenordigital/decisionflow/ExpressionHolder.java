@@ -0,0 +1,213 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Set;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelMessage;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.BeanReference;
+import org.springframework.expression.spel.ast.ConstructorReference;
+import org.springframework.expression.spel.ast.FunctionReference;
+import org.springframework.expression.spel.ast.Literal;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpDec;
+import org.springframework.expression.spel.ast.OpInc;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+class ExpressionHolder {
+    private static final ExpressionParser INTERPRETING_PARSER =
+            new SpelExpressionParser();
+
+    private final EvaluationContext evaluationContext;
+    private final String expression;
+    private volatile Expression parsedExpression;
+
+    ExpressionHolder(
+            final String expression,
+            final ExpressionParser expressionParser,
+            final EvaluationContext evaluationContext) {
+        this.evaluationContext = evaluationContext;
+        this.expression = expression;
+        this.parsedExpression = expressionParser.parseExpression(expression);
+        checkVariableAssignments(getAst());
+    }
+
+    ExpressionHolder() {
+        this.evaluationContext = null;
+        this.expression = null;
+        this.parsedExpression = null;
+    }
+
+    /**
+     * A literal whose value is already known, so there is nothing to parse.
+     */
+    static ExpressionHolder constant(final String expression, final Object value) {
+        return new ExpressionHolder() {
+            @Override
+            String getExpression() {
+                return expression;
+            }
+
+            @Override
+            <C> Object eval(final C context) {
+                return value;
+            }
+
+            @Override
+            boolean isEvaluable() {
+                return true;
+            }
+
+            @Override
+            boolean isConstant() {
+                return true;
+            }
+
+            @Override
+            Object getConstantValue() {
+                return value;
+            }
+        };
+    }
+
+    String getExpression() {
+        return expression;
+    }
+
+    /**
+     * The text the expression was parsed from, or null when it was not parsed at all, as with
+     * constants whose value was given.
+     */
+    String getParsedText() {
+        final Expression current = parsedExpression;
+        return (current == null) ? null : current.getExpressionString();
+    }
+
+    <C> Object eval(final C context) {
+        final Expression current = parsedExpression;
+        try {
+            return current.getValue(evaluationContext, context);
+        } catch (SpelEvaluationException e) {
+            if (e.getMessageCode() != SpelMessage.EXCEPTION_RUNNING_COMPILED_EXPRESSION) {
+                throw e;
+            }
+            final Throwable cause = e.getCause();
+            if (!isCompiledTypeMismatch(cause)) {
+                // thrown by what the expression called, as the interpreter would pass it on
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+            // the compiled form does not fit this context, stick to interpreting
+            parsedExpression =
+                    INTERPRETING_PARSER.parseExpression(current.getExpressionString());
+            return parsedExpression.getValue(evaluationContext, context);
+        }
+    }
+
+    /**
+     * Whether compiled code failed on the types it was compiled for rather than in anything
+     * the expression called.
+     */
+    private static boolean isCompiledTypeMismatch(final Throwable cause) {
+        return cause instanceof ClassCastException || cause instanceof LinkageError;
+    }
+
+    boolean isEvaluable() {
+        return !(parsedExpression instanceof SpelExpression)
+                || ((SpelExpression) parsedExpression).getAST() != null;
+    }
+
+    boolean isConstant() {
+        return parsedExpression instanceof SpelExpression
+                && ((SpelExpression) parsedExpression).getAST() instanceof Literal;
+    }
+
+    Object getConstantValue() {
+        return ((Literal) ((SpelExpression) parsedExpression).getAST())
+                .getLiteralValue()
+                .getValue();
+    }
+
+    /**
+     * The syntax tree of the expression, or null when there is none to walk.
+     */
+    SpelNode getAst() {
+        return (parsedExpression instanceof SpelExpression)
+                ? ((SpelExpression) parsedExpression).getAST()
+                : null;
+    }
+
+    /**
+     * The normalised text of the expression if its value can be kept for the rest of a walk:
+     * it only reads properties and calls the given methods, and changes nothing. Otherwise,
+     * and for literals, which are cheap as they are, null.
+     */
+    String pureKey(final Set<String> pureMethods) {
+        if (!(parsedExpression instanceof SpelExpression) || isConstant()) {
+            return null;
+        }
+        final SpelNode ast = ((SpelExpression) parsedExpression).getAST();
+        return (ast != null && isPure(ast, pureMethods)) ? ast.toStringAST() : null;
+    }
+
+    /**
+     * Whether the expression is a literal, or only reads properties and calls the given
+     * methods, and changes nothing.
+     */
+    boolean isPure(final Set<String> pureMethods) {
+        if (isConstant()) {
+            return true;
+        }
+        if (!(parsedExpression instanceof SpelExpression)) {
+            return false;
+        }
+        final SpelNode ast = ((SpelExpression) parsedExpression).getAST();
+        return ast != null && isPure(ast, pureMethods);
+    }
+
+    /**
+     * Variables live in the evaluation context, which all evaluations of the flow share, so
+     * an expression setting one would hand its value to every other call.
+     */
+    private void checkVariableAssignments(final SpelNode node) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof Assign && node.getChild(0) instanceof VariableReference) {
+            throw new DecisionFlowException(String.format(
+                    "Expression %s assigns the variable %s, variables cannot be set by flows.",
+                    expression, node.getChild(0).toStringAST()));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            checkVariableAssignments(node.getChild(i));
+        }
+    }
+
+    private static boolean isPure(final SpelNode node, final Set<String> pureMethods) {
+        if (node instanceof MethodReference) {
+            if (!pureMethods.contains(((MethodReference) node).getName())) {
+                return false;
+            }
+        } else if (node instanceof Assign
+                || node instanceof OpInc
+                || node instanceof OpDec
+                || node instanceof ConstructorReference
+                || node instanceof FunctionReference
+                || node instanceof BeanReference) {
+            return false;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (!isPure(node.getChild(i), pureMethods)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,836 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.Callback;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParseException;
+
+/**
+ * The loaded form of a decision flow. Nodes and arrows are numbered densely and kept in
+ * arrays: node n is element n, arrow a is element nodeCount + a. The arrows of node n are
+ * firstArrows[n] .. firstArrows[n + 1] - 1, sorted default, obligatory, ordinary.
+ * Everything the traversal needs is copied out of the describer while loading, so nothing
+ * refers back to it afterwards.
+ */
+final class FlowGraph {
+    static final byte INITIAL = 0;
+    static final byte SWITCH = 1;
+    static final byte RANDOM_SWITCH = 2;
+    static final byte TARGET = 3;
+
+    static final byte DEFAULT = 0;
+    static final byte OBLIGATORY = 1;
+    static final byte ORDINARY = 2;
+
+    static final int NONE = -1;
+
+    static final String RANDOM_KEY = "key";
+    static final String RANDOM_SALT = "salt";
+
+    final int initialNode;
+    final int nodeCount;
+    final int arrowCount;
+    final Element[] elements;
+    final byte[] nodeKinds;
+    final ExpressionHolder[] nodeExpressions;
+    final TargetAttributes[] targetAttributes;
+    final RandomSwitch[] randomSwitches;
+    final int[] firstArrows;
+    final int[] defaultArrows;
+    final ArrowDispatch[] dispatches;
+    final byte[] arrowKinds;
+    final int[] arrowDestinations;
+    final ExpressionHolder[] arrowExpressions;
+    private final Map<String, Integer> nodeIndices = new HashMap<>();
+
+    /**
+     * Loads the flow from the describer. When a previously loaded version of the flow is
+     * given, its elements that have not changed are taken over, and so are its expressions,
+     * matched by the text they were parsed from, along with anything SpEL has compiled for
+     * them. The previous version must have been loaded with the same parser and evaluation
+     * context.
+     */
+    FlowGraph(
+            final DecisionFlowDescriber describer,
+            final ExpressionParser expressionParser,
+            final EvaluationContext evaluationContext,
+            final FlowGraph previous) {
+        final Map<String, Element> previousElements = new HashMap<>();
+        final Map<String, ExpressionHolder> previousExpressions = new HashMap<>();
+        if (previous != null) {
+            for (final Element element : previous.elements) {
+                previousElements.putIfAbsent(element.getId(), element);
+            }
+            previous.collectExpressions(previousExpressions);
+        }
+        final Function<String, ExpressionHolder> holderOf = expression -> {
+            final ExpressionHolder holder = previousExpressions.get(expression);
+            return (holder != null)
+                    ? holder
+                    : new ExpressionHolder(expression, expressionParser, evaluationContext);
+        };
+        final List<Element> nodes = new ArrayList<>();
+        final List<Element> arrows = new ArrayList<>();
+        describer.getElements(new Callback() {
+            @Override
+            public void newElement(final ElementDescriptor elementDescriptor) {
+                final Element unchanged = previousElements.get(elementDescriptor.getId());
+                final Element element = (unchanged != null && unchanged.isSameAs(elementDescriptor))
+                        ? unchanged
+                        : new Element(elementDescriptor);
+                switch (elementDescriptor.getType()) {
+                    case INITIAL:
+                    case SWITCH:
+                    case RANDOM_SWITCH:
+                    case TARGET:
+                        nodes.add(element);
+                        break;
+                    case ARROW:
+                        arrows.add(element);
+                        break;
+                    default:
+                        throw new DecisionFlowException(
+                                String.format(
+                                        "Unsupported element type: %s",
+                                        elementDescriptor.getType()));
+                }
+            }
+        });
+
+        nodeCount = nodes.size();
+        arrowCount = arrows.size();
+        nodeKinds = new byte[nodeCount];
+        int initial = NONE;
+        for (int n = 0; n < nodeCount; n++) {
+            final Element node = nodes.get(n);
+            nodeKinds[n] = kindOf(node.getType());
+            if (nodeKinds[n] == INITIAL) {
+                if (initial != NONE) {
+                    throw new DecisionFlowException(
+                            "Multiple initial nodes found.");
+                }
+                initial = n;
+            }
+            nodeIndices.put(node.getId(), n);
+        }
+        if (initial == NONE) {
+            throw new DecisionFlowException("No initial node found.");
+        }
+        initialNode = initial;
+
+        final int[] sources = new int[arrowCount];
+        final int[] destinations = new int[arrowCount];
+        for (int a = 0; a < arrowCount; a++) {
+            final Element arrow = arrows.get(a);
+            sources[a] = indexOf(arrow.getSourceNodeId());
+            if (sources[a] == NONE) {
+                throw new DecisionFlowException(
+                        String.format("Source node not found (%s->%s).",
+                                arrow.getName(),
+                                arrow.getSourceNodeId()));
+            }
+            destinations[a] = indexOf(arrow.getDestinationNodeId());
+            if (destinations[a] == NONE) {
+                throw new DecisionFlowException(
+                        String.format("Destination node not found (%s->%s).",
+                                arrow.getName(),
+                                arrow.getDestinationNodeId()));
+            }
+        }
+        final List<Integer> order = new ArrayList<>();
+        for (int a = 0; a < arrowCount; a++) {
+            order.add(a);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer o1, final Integer o2) {
+                final int bySource = sources[o1] - sources[o2];
+                return (bySource != 0)
+                        ? bySource
+                        : arrowKindOf(arrows.get(o1)) - arrowKindOf(arrows.get(o2));
+            }
+        });
+
+        elements = new Element[nodeCount + arrowCount];
+        nodes.toArray(elements);
+        arrowKinds = new byte[arrowCount];
+        arrowDestinations = new int[arrowCount];
+        firstArrows = new int[nodeCount + 1];
+        defaultArrows = new int[nodeCount];
+        Arrays.fill(defaultArrows, NONE);
+        for (int a = 0; a < arrowCount; a++) {
+            final int original = order.get(a);
+            final Element arrow = arrows.get(original);
+            elements[nodeCount + a] = arrow;
+            arrowKinds[a] = arrowKindOf(arrow);
+            arrowDestinations[a] = destinations[original];
+            firstArrows[sources[original] + 1]++;
+            if (arrowKinds[a] == DEFAULT) {
+                if (defaultArrows[sources[original]] != NONE) {
+                    throw new DecisionFlowException(
+                            String.format(
+                                    "Multiple default paths detected from node %s.",
+                                    elements[sources[original]].getName()));
+                }
+                defaultArrows[sources[original]] = a;
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            firstArrows[n + 1] += firstArrows[n];
+        }
+        validate();
+
+        nodeExpressions = new ExpressionHolder[nodeCount];
+        targetAttributes = new TargetAttributes[nodeCount];
+        randomSwitches = new RandomSwitch[nodeCount];
+        arrowExpressions = new ExpressionHolder[arrowCount];
+        dispatches = new ArrowDispatch[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            final Element node = elements[n];
+            switch (nodeKinds[n]) {
+                case SWITCH:
+                    nodeExpressions[n] = holderOf.apply(node.getExpression());
+                    break;
+                case RANDOM_SWITCH:
+                    randomSwitches[n] = randomSwitch(n);
+                    nodeExpressions[n] = randomiser(randomSwitches[n], holderOf);
+                    break;
+                case TARGET:
+                    nodeExpressions[n] = holderOf.apply(node.getExpression());
+                    targetAttributes[n] = newTargetAttributes(node.getAttributes(), holderOf);
+                    break;
+                default:
+                    break;
+            }
+            for (int a = firstArrows[n]; a < firstArrows[n + 1]; a++) {
+                // arrows of a random switch are matched against the index drawn by it
+                final String expression = (nodeKinds[n] == RANDOM_SWITCH)
+                        ? String.valueOf(a - firstArrows[n])
+                        : elements[nodeCount + a].getExpression();
+                arrowExpressions[a] = holderOf.apply(expression);
+            }
+            dispatches[n] = new ArrowDispatch(n);
+        }
+    }
+
+    /**
+     * Puts a flow together from the arrays read back from its compiled form, with the
+     * expressions already created. The default arrows and the dispatch tables are derived
+     * again, and the flow is validated as if it had been described.
+     */
+    FlowGraph(
+            final Element[] elements,
+            final int nodeCount,
+            final byte[] nodeKinds,
+            final int[] firstArrows,
+            final byte[] arrowKinds,
+            final int[] arrowDestinations,
+            final ExpressionHolder[] nodeExpressions,
+            final TargetAttributes[] targetAttributes,
+            final RandomSwitch[] randomSwitches,
+            final ExpressionHolder[] arrowExpressions) {
+        this.elements = elements;
+        this.nodeCount = nodeCount;
+        this.arrowCount = elements.length - nodeCount;
+        this.nodeKinds = nodeKinds;
+        this.firstArrows = firstArrows;
+        this.arrowKinds = arrowKinds;
+        this.arrowDestinations = arrowDestinations;
+        this.nodeExpressions = nodeExpressions;
+        this.targetAttributes = targetAttributes;
+        this.randomSwitches = randomSwitches;
+        this.arrowExpressions = arrowExpressions;
+        int initial = NONE;
+        defaultArrows = new int[nodeCount];
+        Arrays.fill(defaultArrows, NONE);
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeKinds[n] == INITIAL) {
+                initial = n;
+            }
+            nodeIndices.put(elements[n].getId(), n);
+            for (int a = firstArrows[n]; a < firstArrows[n + 1]; a++) {
+                if (arrowKinds[a] == DEFAULT) {
+                    defaultArrows[n] = a;
+                }
+            }
+        }
+        if (initial == NONE) {
+            throw new DecisionFlowException("No initial node found.");
+        }
+        initialNode = initial;
+        validate();
+        dispatches = new ArrowDispatch[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            dispatches[n] = new ArrowDispatch(n);
+        }
+    }
+
+    int indexOf(final String nodeId) {
+        final Integer index = nodeIndices.get(nodeId);
+        return (index == null) ? NONE : index;
+    }
+
+    int arrowsFrom(final int node) {
+        return firstArrows[node + 1] - firstArrows[node];
+    }
+
+    Element arrowElement(final int arrow) {
+        return elements[nodeCount + arrow];
+    }
+
+    /**
+     * Collects the expressions of the flow by the text they were parsed from, so that a holder
+     * is only ever reused for that very text. Holders that were not parsed, such as the draw of
+     * a random switch and the constants read back from the binary form, are left out.
+     */
+    void collectExpressions(final Map<String, ExpressionHolder> expressions) {
+        forEachExpression(holder -> {
+            final String text = holder.getParsedText();
+            if (text != null) {
+                expressions.putIfAbsent(text, holder);
+            }
+        });
+    }
+
+    /**
+     * Every expression of the nodes, target attributes and arrows, the same text as often as
+     * it is used.
+     */
+    void forEachExpression(final Consumer<ExpressionHolder> action) {
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeExpressions[n] != null) {
+                action.accept(nodeExpressions[n]);
+            }
+            if (targetAttributes[n] != null) {
+                targetAttributes[n].expressions.values().forEach(action);
+            }
+        }
+        for (final ExpressionHolder holder : arrowExpressions) {
+            action.accept(holder);
+        }
+    }
+
+    private static byte kindOf(final ElementType type) {
+        switch (type) {
+            case INITIAL:
+                return INITIAL;
+            case SWITCH:
+                return SWITCH;
+            case RANDOM_SWITCH:
+                return RANDOM_SWITCH;
+            default:
+                return TARGET;
+        }
+    }
+
+    private static byte arrowKindOf(final ElementDescriptor arrow) {
+        return arrow.isObligatory()
+                ? OBLIGATORY
+                : (arrow.isDefault() ? DEFAULT : ORDINARY);
+    }
+
+    /**
+     * Rejects flows with loops or with parts that can't be reached from the initial node,
+     * so a flow that loads can be traversed without any checks.
+     */
+    private void validate() {
+        final byte[] states = new byte[nodeCount];
+        final int[] stack = new int[nodeCount];
+        final int[] nextArrows = new int[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            detectLoops(n, states, stack, nextArrows);
+        }
+        final boolean[] reachable = collectReachable(initialNode, stack);
+        for (int n = 0; n < nodeCount; n++) {
+            if (!reachable[n]) {
+                throw new DecisionFlowException(
+                        String.format("Unreachable node found (%s).", elements[n].getName()));
+            }
+        }
+    }
+
+    /**
+     * Walks depth first from the node on a stack of its own rather than the thread's, so a
+     * long chain of nodes can't overflow it. A node is on the stack at most once.
+     */
+    private void detectLoops(
+            final int start,
+            final byte[] states,
+            final int[] stack,
+            final int[] nextArrows) {
+        final byte onPath = 1;
+        final byte visited = 2;
+        if (states[start] != 0) {
+            return;
+        }
+        int depth = 0;
+        stack[depth++] = start;
+        states[start] = onPath;
+        nextArrows[start] = firstArrows[start];
+        while (depth > 0) {
+            final int node = stack[depth - 1];
+            if (nextArrows[node] == firstArrows[node + 1]) {
+                states[node] = visited;
+                depth--;
+                continue;
+            }
+            final int destination = arrowDestinations[nextArrows[node]++];
+            if (states[destination] == onPath) {
+                throw new DecisionFlowException(
+                        String.format("Loops detected in the decision flow (%s)",
+                                elements[destination].getName()));
+            }
+            if (states[destination] == 0) {
+                stack[depth++] = destination;
+                states[destination] = onPath;
+                nextArrows[destination] = firstArrows[destination];
+            }
+        }
+    }
+
+    private boolean[] collectReachable(final int start, final int[] stack) {
+        final boolean[] reachable = new boolean[nodeCount];
+        int depth = 0;
+        stack[depth++] = start;
+        reachable[start] = true;
+        while (depth > 0) {
+            final int node = stack[--depth];
+            for (int a = firstArrows[node]; a < firstArrows[node + 1]; a++) {
+                final int destination = arrowDestinations[a];
+                if (!reachable[destination]) {
+                    reachable[destination] = true;
+                    stack[depth++] = destination;
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * The arrows of a random switch are labelled with their weights; the default arrow takes
+     * whatever is left up to 100. A random switch with a key attribute is sticky: the arrow
+     * is picked by hashing the value of the key expression together with the salt attribute
+     * (the node id by default), so the same key always takes the same arrow.
+     */
+    private RandomSwitch randomSwitch(final int node) {
+        final int first = firstArrows[node];
+        final double[] weights = new double[arrowsFrom(node)];
+        double sumOrdinaries = 0;
+        boolean hasChoice = false;
+        for (int a = first; a < firstArrows[node + 1]; a++) {
+            if (arrowKinds[a] == ORDINARY) {
+                weights[a - first] = weight(node, a);
+                sumOrdinaries += weights[a - first];
+            }
+            hasChoice |= arrowKinds[a] != OBLIGATORY;
+        }
+        if (defaultArrows[node] != NONE) {
+            weights[defaultArrows[node] - first] = Math.max(0, 100 - sumOrdinaries);
+        }
+        if (!hasChoice) {
+            return new RandomSwitch(null, null, null, null);
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new DecisionFlowException(String.format(
+                    "No arrow can be chosen from random switch %s.", elements[node].getName()));
+        }
+        final Map<String, ?> attributes = elements[node].getAttributes();
+        final Object key = (attributes == null) ? null : attributes.get(RANDOM_KEY);
+        if (!(key instanceof String)) {
+            return new RandomSwitch(weights, new AliasTable(weights), null, null);
+        }
+        final Object salt = attributes.get(RANDOM_SALT);
+        final String prefix = ((salt != null) ? salt.toString() : elements[node].getId()) + '\0';
+        return new RandomSwitch(weights, new AliasTable(weights), (String) key, prefix);
+    }
+
+    /**
+     * The switch evaluates to the position of the arrow drawn, or to null when there is
+     * nothing to choose from.
+     */
+    static ExpressionHolder randomiser(
+            final RandomSwitch randomSwitch,
+            final Function<String, ExpressionHolder> holderOf) {
+        final double[] weights = randomSwitch.weights;
+        final AliasTable aliasTable = randomSwitch.aliasTable;
+        if (weights == null) {
+            return new ExpressionHolder() {
+                @Override
+                <C> Object eval(final C context) {
+                    return null;
+                }
+            };
+        }
+        if (randomSwitch.key == null) {
+            return new ExpressionHolder() {
+                @Override
+                <C> Object eval(final C context) {
+                    return aliasTable.next(ThreadLocalRandom.current());
+                }
+            };
+        }
+        final String prefix = randomSwitch.prefix;
+        final ExpressionHolder keyExpression = holderOf.apply(randomSwitch.key);
+        final double[] cumulativeWeights = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        return new ExpressionHolder() {
+            @Override
+            <C> Object eval(final C context) {
+                final Object value = keyExpression.eval(context);
+                if (value == null) {
+                    return aliasTable.next(ThreadLocalRandom.current());
+                }
+                final int hash = Murmur3.hash32(
+                        (prefix + value).getBytes(StandardCharsets.UTF_8), 0);
+                final double point =
+                        (hash & 0xffffffffL) / 4294967296.0 * cumulativeWeights[weights.length - 1];
+                int index = Arrays.binarySearch(cumulativeWeights, point);
+                index = (index < 0) ? -index - 1 : index + 1;
+                // an exact hit belongs to the next arrow that has any weight
+                while (index < weights.length - 1 && weights[index] == 0) {
+                    index++;
+                }
+                return Math.min(index, weights.length - 1);
+            }
+        };
+    }
+
+    private double weight(final int node, final int arrow) {
+        final String expression = elements[nodeCount + arrow].getExpression();
+        double weight = Double.NaN;
+        try {
+            weight = Double.parseDouble(expression.trim());
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (!(weight >= 0) || Double.isInfinite(weight)) {
+            throw new DecisionFlowException(String.format(
+                    "Invalid weight %s from random switch %s.",
+                    expression, elements[node].getName()));
+        }
+        return weight;
+    }
+
+    private static TargetAttributes newTargetAttributes(
+            final Map<String, ?> map,
+            final Function<String, ExpressionHolder> holderOf) {
+        if (map == null) {
+            return new TargetAttributes(null, Collections.emptyMap());
+        }
+        final Map<String, Object> constants = new HashMap<>();
+        final Map<String, ExpressionHolder> expressions = new HashMap<>();
+        for (final String key: map.keySet()) {
+            final Object value = map.get(key);
+            if (value == null) {
+                continue;
+            }
+            if (!(value instanceof String)) {
+                constants.put(key, value);
+                continue;
+            }
+            ExpressionHolder expressionHolder = null;
+            try {
+                expressionHolder = holderOf.apply((String) value);
+            } catch (ParseException e) {
+                constants.put(key, value);
+                continue;
+            }
+            if (expressionHolder.isConstant()) {
+                constants.put(key, expressionHolder.getConstantValue());
+            } else if (expressionHolder.isEvaluable()) {
+                expressions.put(key, expressionHolder);
+            } else {
+                constants.put(key, value);
+            }
+        }
+        return new TargetAttributes(Collections.unmodifiableMap(constants), expressions);
+    }
+
+    static boolean areEqual(final Object nodeExprResult, final Object arrowExprResult) {
+        if (nodeExprResult == null) {
+            return (arrowExprResult == null);
+        }
+        return nodeExprResult.equals(arrowExprResult);
+    }
+
+    /**
+     * Finds the ordinary arrow whose value equals the value of the switch. Arrows labelled
+     * with literals are looked up in a hash table, the remaining ones are evaluated in order,
+     * but only those that precede the matching literal, so the first matching arrow still wins.
+     */
+    final class ArrowDispatch {
+        private final Map<Object, Integer> constantArrows = new HashMap<>();
+        private final int[] dynamicArrows;
+
+        private ArrowDispatch(final int node) {
+            final List<Integer> dynamic = new ArrayList<>();
+            for (int a = firstArrows[node]; a < firstArrows[node + 1]; a++) {
+                if (arrowKinds[a] != ORDINARY) {
+                    continue;
+                }
+                final ExpressionHolder holder = arrowExpressions[a];
+                if (holder.isConstant()) {
+                    constantArrows.putIfAbsent(holder.getConstantValue(), a);
+                } else {
+                    dynamic.add(a);
+                }
+            }
+            this.dynamicArrows = dynamic.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        <C> int find(final Object value, final C context, final Memo memo) {
+            final Integer constantArrow = constantArrows.get(value);
+            final int limit = (constantArrow == null) ? Integer.MAX_VALUE : constantArrow;
+            for (final int arrow : dynamicArrows) {
+                if (arrow >= limit) {
+                    break;
+                }
+                if (areEqual(value, Memo.eval(memo, arrowExpressions[arrow], context))) {
+                    return arrow;
+                }
+            }
+            return (constantArrow == null) ? NONE : constantArrow;
+        }
+
+        /**
+         * The number of arrow expressions find evaluated to come up with the arrow chosen from
+         * the node, be it one of the ordinary arrows, the default arrow or none.
+         */
+        int evaluations(final int chosenArrow) {
+            if (chosenArrow == NONE || arrowKinds[chosenArrow] != ORDINARY) {
+                return dynamicArrows.length;
+            }
+            final int position = Arrays.binarySearch(dynamicArrows, chosenArrow);
+            return (position >= 0) ? position + 1 : -position - 1;
+        }
+    }
+
+    /**
+     * What a random switch draws from: the weights of its arrows (null when there is no
+     * arrow to choose), and for a sticky switch the key expression and the hash prefix.
+     */
+    static final class RandomSwitch {
+        final double[] weights;
+        final AliasTable aliasTable;
+        final String key;
+        final String prefix;
+
+        RandomSwitch(
+                final double[] weights,
+                final AliasTable aliasTable,
+                final String key,
+                final String prefix) {
+            this.weights = weights;
+            this.aliasTable = aliasTable;
+            this.key = key;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * The attributes of a target: those that are the same for every context, and those with
+     * an expression. An attribute whose expression fails is given its text instead, and from
+     * then on without evaluating it again.
+     */
+    static final class TargetAttributes {
+        final Map<String, ?> constants;
+        final Map<String, ExpressionHolder> expressions;
+        private final String[] keys;
+        private final ExpressionHolder[] holders;
+        // threads racing to set a flag only evaluate the expression once more
+        private final boolean[] failed;
+
+        TargetAttributes(
+                final Map<String, ?> constants,
+                final Map<String, ExpressionHolder> expressions) {
+            this.constants = constants;
+            this.expressions = expressions;
+            this.keys = expressions.keySet().toArray(new String[0]);
+            this.holders = new ExpressionHolder[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                holders[i] = expressions.get(keys[i]);
+            }
+            this.failed = new boolean[keys.length];
+        }
+
+        boolean isConstant() {
+            return expressions.isEmpty();
+        }
+
+        <C> Map<String, ?> eval(final C context, final Memo memo) {
+            if (expressions.isEmpty()) {
+                return constants;
+            }
+            final Map<String, Object> attributes = new HashMap<>(constants);
+            for (int i = 0; i < keys.length; i++) {
+                if (failed[i]) {
+                    attributes.put(keys[i], holders[i].getExpression());
+                    continue;
+                }
+                try {
+                    attributes.put(keys[i], Memo.eval(memo, holders[i], context));
+                } catch (RuntimeException e) {
+                    failed[i] = true;
+                    attributes.put(keys[i], holders[i].getExpression());
+                }
+            }
+            return Collections.unmodifiableMap(attributes);
+        }
+    }
+
+    /**
+     * A copy of an element descriptor, taken while loading.
+     */
+    static final class Element implements ElementDescriptor {
+        private final String id;
+        private final String name;
+        private final ElementType type;
+        private final Map<String, ?> attributes;
+        private final String expression;
+        private final String sourceNodeId;
+        private final String destinationNodeId;
+        private final boolean isDefault;
+        private final boolean isObligatory;
+
+        Element(
+                final String id,
+                final String name,
+                final ElementType type,
+                final Map<String, ?> attributes,
+                final String expression,
+                final String sourceNodeId,
+                final String destinationNodeId,
+                final boolean isDefault,
+                final boolean isObligatory) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.attributes = attributes;
+            this.expression = expression;
+            this.sourceNodeId = sourceNodeId;
+            this.destinationNodeId = destinationNodeId;
+            this.isDefault = isDefault;
+            this.isObligatory = isObligatory;
+        }
+
+        boolean isSameAs(final ElementDescriptor other) {
+            return Objects.equals(id, other.getId())
+                    && Objects.equals(name, other.getName())
+                    && type == other.getType()
+                    && Objects.equals(attributes, other.getAttributes())
+                    && Objects.equals(expression, other.getExpression())
+                    && Objects.equals(sourceNodeId, other.getSourceNodeId())
+                    && Objects.equals(destinationNodeId, other.getDestinationNodeId())
+                    && isDefault == other.isDefault()
+                    && isObligatory == other.isObligatory();
+        }
+
+        private Element(final ElementDescriptor other) {
+            this.id = other.getId();
+            this.name = other.getName();
+            this.type = other.getType();
+            this.attributes = (other.getAttributes() == null)
+                    ? null
+                    : Collections.unmodifiableMap(new HashMap<>(other.getAttributes()));
+            this.expression = other.getExpression();
+            this.sourceNodeId = other.getSourceNodeId();
+            this.destinationNodeId = other.getDestinationNodeId();
+            this.isDefault = other.isDefault();
+            this.isObligatory = other.isObligatory();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public ElementType getType() {
+            return type;
+        }
+
+        @Override
+        public Map<String, ?> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public String getExpression() {
+            return expression;
+        }
+
+        @Override
+        public String getSourceNodeId() {
+            return sourceNodeId;
+        }
+
+        @Override
+        public String getDestinationNodeId() {
+            return destinationNodeId;
+        }
+
+        @Override
+        public boolean isDefault() {
+            return isDefault;
+        }
+
+        @Override
+        public boolean isObligatory() {
+            return isObligatory;
+        }
+
+        @Override
+        public String toString() {
+            String kind;
+            String shownExpression = expression;
+            switch (type) {
+                case INITIAL:
+                    kind = "InitialNode";
+                    shownExpression = null;
+                    break;
+                case SWITCH:
+                    kind = "Switch";
+                    break;
+                case RANDOM_SWITCH:
+                    kind = "RandomSwitch";
+                    shownExpression = null;
+                    break;
+                case TARGET:
+                    kind = "Target";
+                    break;
+                default:
+                    kind = isObligatory ? "Arrow(always)" : "Arrow";
+                    break;
+            }
+            if (name != null && name.equals(shownExpression)) {
+                shownExpression = null;
+            }
+            return kind
+                    + ((name != null) ? ":" + name : "")
+                    + ((shownExpression != null) ? ":" + shownExpression : "");
+        }
+    }
+}
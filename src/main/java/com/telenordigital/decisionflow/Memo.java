@@ -0,0 +1,45 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The values of the pure expressions evaluated during one walk over the flow. Expressions
+ * with the same normalised text share a slot, wherever they are used. Branches followed
+ * concurrently share the memo; two of them may both evaluate an expression, which is
+ * harmless as it is pure.
+ */
+final class Memo {
+    private static final Object UNSET = new Object();
+
+    private final Map<ExpressionHolder, Integer> slots;
+    private final AtomicReferenceArray<Object> values;
+
+    Memo(final Map<ExpressionHolder, Integer> slots, final int size) {
+        this.slots = slots;
+        this.values = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            values.set(i, UNSET);
+        }
+    }
+
+    /**
+     * Evaluates the expression, through the memo if there is one.
+     */
+    static <C> Object eval(final Memo memo, final ExpressionHolder holder, final C context) {
+        return (memo == null) ? holder.eval(context) : memo.eval(holder, context);
+    }
+
+    private <C> Object eval(final ExpressionHolder holder, final C context) {
+        final Integer slot = slots.get(holder);
+        if (slot == null) {
+            return holder.eval(context);
+        }
+        Object value = values.get(slot);
+        if (value == UNSET) {
+            value = holder.eval(context);
+            values.set(slot, value);
+        }
+        return value;
+    }
+}
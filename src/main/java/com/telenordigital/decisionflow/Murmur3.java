@@ -0,0 +1,52 @@
+package com.telenordigital.decisionflow;
+
+/**
+ * The 32 bit x86 variant of MurmurHash3.
+ */
+final class Murmur3 {
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private Murmur3() {
+    }
+
+    static int hash32(final byte[] data, final int seed) {
+        int h = seed;
+        final int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[4 * i] & 0xff)
+                    | (data[4 * i + 1] & 0xff) << 8
+                    | (data[4 * i + 2] & 0xff) << 16
+                    | (data[4 * i + 3] & 0xff) << 24;
+            k *= C1;
+            k = Integer.rotateLeft(k, 15);
+            k *= C2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        final int tail = blocks * 4;
+        final int remaining = data.length & 3;
+        if (remaining > 0) {
+            if (remaining == 3) {
+                k ^= (data[tail + 2] & 0xff) << 16;
+            }
+            if (remaining >= 2) {
+                k ^= (data[tail + 1] & 0xff) << 8;
+            }
+            k ^= data[tail] & 0xff;
+            k *= C1;
+            k = Integer.rotateLeft(k, 15);
+            k *= C2;
+            h ^= k;
+        }
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
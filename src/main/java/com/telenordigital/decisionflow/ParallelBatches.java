@@ -0,0 +1,139 @@
+package com.telenordigital.decisionflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs batches of contexts in chunks, either on an executor or as a stream is consumed,
+ * keeping the results in the order of the contexts.
+ */
+final class ParallelBatches {
+    // a few chunks per thread, so that threads done early can take over from the others
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int STREAM_CHUNK_SIZE = 256;
+
+    private ParallelBatches() {
+    }
+
+    static <C, R> List<R> inParallel(
+            final Iterable<? extends C> contexts,
+            final Function<List<C>, List<R>> batch,
+            final Executor executor) {
+        final List<C> list = new ArrayList<>();
+        for (final C context : contexts) {
+            list.add(context);
+        }
+        final int size = list.size();
+        final int chunks = Math.min(
+                parallelism(executor) * CHUNKS_PER_THREAD,
+                (size + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        if (chunks <= 1) {
+            return batch.apply(list);
+        }
+        final List<CompletableFuture<List<R>>> futures = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final List<C> chunk = list.subList(
+                    (int) ((long) size * c / chunks), (int) ((long) size * (c + 1) / chunks));
+            futures.add(CompletableFuture.supplyAsync(() -> batch.apply(chunk), executor));
+        }
+        final List<R> results = new ArrayList<>(size);
+        try {
+            for (final CompletableFuture<List<R>> future : futures) {
+                results.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            // chunks that have not started yet are skipped
+            for (final CompletableFuture<List<R>> future : futures) {
+                future.cancel(false);
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    static <C, R> Stream<R> inChunks(
+            final Stream<? extends C> contexts,
+            final Function<List<C>, List<R>> batch) {
+        return StreamSupport.stream(
+                new ChunkSpliterator<C, R>(contexts.spliterator(), batch),
+                contexts.isParallel())
+                .onClose(contexts::close);
+    }
+
+    private static int parallelism(final Executor executor) {
+        return (executor instanceof ForkJoinPool)
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Takes the contexts from the source a chunk at a time. It splits along with the source,
+     * so a parallel stream hands each of its threads chunks of its own.
+     */
+    private static final class ChunkSpliterator<C, R> implements Spliterator<R> {
+        private final Spliterator<? extends C> source;
+        private final Function<List<C>, List<R>> batch;
+        private Iterator<R> results = Collections.emptyIterator();
+
+        private ChunkSpliterator(
+                final Spliterator<? extends C> source,
+                final Function<List<C>, List<R>> batch) {
+            this.source = source;
+            this.batch = batch;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super R> action) {
+            if (!results.hasNext()) {
+                final List<C> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+                while (chunk.size() < STREAM_CHUNK_SIZE && source.tryAdvance(chunk::add)) {
+                    continue;
+                }
+                if (chunk.isEmpty()) {
+                    return false;
+                }
+                results = batch.apply(chunk).iterator();
+            }
+            action.accept(results.next());
+            return true;
+        }
+
+        @Override
+        public Spliterator<R> trySplit() {
+            if (results.hasNext()) {
+                // the results at hand come before anything a split would hand out
+                return null;
+            }
+            final Spliterator<? extends C> prefix = source.trySplit();
+            return (prefix == null) ? null : new ChunkSpliterator<>(prefix, batch);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return source.characteristics() & ORDERED;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.telenordigital.decisionflow;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A decision machine that follows a model file. Whenever the file changes, a new machine is
+ * loaded from it on a background thread and swapped in at once; calls already running finish
+ * with the machine they started with. If loading fails, the previous machine stays in use
+ * and the failure is kept for getLastReloadFailure.
+ *
+ * <p>Besides the model file, only the labels Papyrus keeps next to a .uml model, in
+ * name_en_US.properties, are watched. A loader that reads other files has to be told of
+ * their changes through reload(). Close the machine to stop watching.
+ */
+public final class ReloadingDecisionFlow<C, P> implements DecisionMachine<C, P>, AutoCloseable {
+
+    // editors often write a file in several steps, reload once they are done
+    private static final long QUIET_PERIOD_MILLIS = 200;
+
+    private final Path modelFile;
+    private final Path labelsFile;
+    private final BiFunction<Path, DecisionMachine<C, P>, DecisionMachine<C, P>> loader;
+    private final WatchService watchService;
+    private volatile DecisionMachine<C, P> current;
+    private volatile RuntimeException lastReloadFailure;
+
+    private ReloadingDecisionFlow(
+            final Path modelFile,
+            final BiFunction<Path, DecisionMachine<C, P>, DecisionMachine<C, P>> loader) {
+        this.modelFile = modelFile.toAbsolutePath();
+        this.labelsFile = labelsFileOf(this.modelFile);
+        this.loader = loader;
+        this.current = loader.apply(this.modelFile, null);
+        this.watchService = watchDirectoryOf(this.modelFile);
+    }
+
+    private static <C, P> ReloadingDecisionFlow<C, P> start(
+            final ReloadingDecisionFlow<C, P> flow) {
+        final Thread watcher = new Thread(flow::watch, "decision-flow-reload-" + flow.modelFile);
+        watcher.setDaemon(true);
+        watcher.start();
+        return flow;
+    }
+
+    private static Path labelsFileOf(final Path modelFile) {
+        final String name = modelFile.getFileName().toString();
+        return name.endsWith(".uml")
+                ? modelFile.resolveSibling(
+                        name.substring(0, name.length() - ".uml".length()) + "_en_US.properties")
+                : null;
+    }
+
+    private static WatchService watchDirectoryOf(final Path modelFile) {
+        final WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new DecisionFlowException(String.format("Could not watch %s.", modelFile), e);
+        }
+        try {
+            modelFile.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return watchService;
+        } catch (IOException | RuntimeException e) {
+            try {
+                watchService.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            throw new DecisionFlowException(String.format("Could not watch %s.", modelFile), e);
+        }
+    }
+
+    /**
+     * Loads the machine from the model file right away, failing if it can't be loaded, and
+     * then keeps reloading it as the file changes. For example:
+     *
+     *     ReloadingDecisionFlow.getInstance(path,
+     *             p -> DecisionFlow.getInstance(StreamingPapyrus.getInstance(p)));
+     */
+    public static <C, P> ReloadingDecisionFlow<C, P> getInstance(
+            final Path modelFile,
+            final Function<Path, DecisionMachine<C, P>> loader) {
+        return start(new ReloadingDecisionFlow<>(
+                modelFile, (path, previous) -> loader.apply(path)));
+    }
+
+    /**
+     * Like getInstance(modelFile, loader), but the loader is also given the machine in use
+     * (null the first time), so that it can reuse what has not changed:
+     *
+     *     ReloadingDecisionFlow.getInstance(path, (p, previous) -> (previous == null)
+     *             ? DecisionFlow.getInstance(StreamingPapyrus.getInstance(p))
+     *             : ((DecisionFlow) previous).recompile(StreamingPapyrus.getInstance(p)));
+     */
+    public static <C, P> ReloadingDecisionFlow<C, P> getInstance(
+            final Path modelFile,
+            final BiFunction<Path, DecisionMachine<C, P>, DecisionMachine<C, P>> loader) {
+        return start(new ReloadingDecisionFlow<>(modelFile, loader));
+    }
+
+    @Override
+    public Decision<P> getDecision(final C context) {
+        return current.getDecision(context);
+    }
+
+    @Override
+    public List<Decision<P>> getDecisions(final C context) {
+        return current.getDecisions(context);
+    }
+
+    @Override
+    public List<Decision<P>> getDecisionBatch(final Iterable<? extends C> contexts) {
+        return current.getDecisionBatch(contexts);
+    }
+
+    @Override
+    public List<List<Decision<P>>> getDecisionsBatch(final Iterable<? extends C> contexts) {
+        return current.getDecisionsBatch(contexts);
+    }
+
+    @Override
+    public List<Decision<P>> getDecisionBatch(
+            final Iterable<? extends C> contexts,
+            final Executor executor) {
+        return current.getDecisionBatch(contexts, executor);
+    }
+
+    @Override
+    public List<List<Decision<P>>> getDecisionsBatch(
+            final Iterable<? extends C> contexts,
+            final Executor executor) {
+        return current.getDecisionsBatch(contexts, executor);
+    }
+
+    @Override
+    public Stream<Decision<P>> getDecisionStream(final Stream<? extends C> contexts) {
+        return current.getDecisionStream(contexts);
+    }
+
+    @Override
+    public Stream<List<Decision<P>>> getDecisionsStream(final Stream<? extends C> contexts) {
+        return current.getDecisionsStream(contexts);
+    }
+
+    /**
+     * The machine in use. Hold on to it to make several calls against the same version,
+     * e.g. getDecision followed by continueFrom.
+     */
+    public DecisionMachine<C, P> getCurrent() {
+        return current;
+    }
+
+    /**
+     * The reason the last reload failed, or null if it succeeded.
+     */
+    public RuntimeException getLastReloadFailure() {
+        return lastReloadFailure;
+    }
+
+    /**
+     * Loads the model file now. On failure the previous machine stays in use and the
+     * exception is rethrown. Reloads, whether asked for or after a change of the file, run
+     * one at a time, so the last one to start is the one that stays.
+     */
+    public synchronized void reload() {
+        final DecisionMachine<C, P> loaded;
+        try {
+            loaded = loader.apply(modelFile, current);
+        } catch (RuntimeException e) {
+            lastReloadFailure = e;
+            throw e;
+        }
+        current = loaded;
+        lastReloadFailure = null;
+    }
+
+    /**
+     * Stops watching the files. The current machine can still be used.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not stop watching.", e);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!isModelFileChanged(watchService.take())) {
+                    continue;
+                }
+                WatchKey more;
+                while ((more = watchService.poll(
+                        QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isModelFileChanged(more);
+                }
+                try {
+                    reload();
+                } catch (RuntimeException e) {
+                    // kept in lastReloadFailure, the previous machine stays in use
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private boolean isModelFileChanged(final WatchKey key) {
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || modelFile.getFileName().equals(event.context())
+                    || (labelsFile != null && labelsFile.getFileName().equals(event.context()));
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,185 @@
+package com.telenordigital.decisionflow;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache along the lines of W-TinyLFU. New entries go to a small LRU window; an
+ * entry pushed out of the window only makes it into the main space if it has been asked for
+ * more often than the entry it would push out there, as estimated by a frequency sketch.
+ * The main space is a segmented LRU: entries hit while on probation move to the protected
+ * segment. Entries also expire a fixed time after they were put. All methods lock the cache.
+ */
+final class TinyLfuCache<K, V> {
+    private final int windowSize;
+    private final int mainSize;
+    private final int protectedSize;
+    private final long timeToLiveNanos;
+    private final FrequencySketch sketch;
+    private final Map<K, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, Entry<V>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long evictions;
+
+    TinyLfuCache(final int maximumSize, final long timeToLiveNanos) {
+        if (maximumSize <= 0) {
+            throw new DecisionFlowException("Cache size must be positive.");
+        }
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.mainSize = maximumSize - windowSize;
+        this.protectedSize = mainSize * 4 / 5;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * The value cached for the key, or null.
+     */
+    synchronized V get(final K key, final long nowNanos) {
+        sketch.increment(key.hashCode());
+        Entry<V> entry = window.get(key);
+        if (entry == null) {
+            entry = protectedEntries.get(key);
+        }
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry != null) {
+                protectedEntries.put(key, entry);
+                if (protectedEntries.size() > protectedSize) {
+                    final Iterator<Map.Entry<K, Entry<V>>> eldest =
+                            protectedEntries.entrySet().iterator();
+                    final Map.Entry<K, Entry<V>> demoted = eldest.next();
+                    eldest.remove();
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (nowNanos - entry.expiry > 0) {
+            window.remove(key);
+            probation.remove(key);
+            protectedEntries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(final K key, final V value, final long nowNanos) {
+        final Entry<V> entry = new Entry<>(value, nowNanos + timeToLiveNanos);
+        if (window.containsKey(key)) {
+            window.put(key, entry);
+            return;
+        }
+        if (probation.containsKey(key)) {
+            probation.put(key, entry);
+            return;
+        }
+        if (protectedEntries.containsKey(key)) {
+            protectedEntries.put(key, entry);
+            return;
+        }
+        window.put(key, entry);
+        if (window.size() <= windowSize) {
+            return;
+        }
+        final Iterator<Map.Entry<K, Entry<V>>> eldest = window.entrySet().iterator();
+        final Map.Entry<K, Entry<V>> candidate = eldest.next();
+        eldest.remove();
+        if (probation.size() + protectedEntries.size() < mainSize) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        final Map<K, Entry<V>> victims = probation.isEmpty() ? protectedEntries : probation;
+        if (victims.isEmpty()) {
+            evictions++;
+            return;
+        }
+        final Iterator<Map.Entry<K, Entry<V>>> victimIterator = victims.entrySet().iterator();
+        final K victim = victimIterator.next().getKey();
+        if (sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.hashCode())) {
+            victimIterator.remove();
+            probation.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions++;
+    }
+
+    synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedEntries.clear();
+    }
+
+    synchronized int size() {
+        return window.size() + probation.size() + protectedEntries.size();
+    }
+
+    synchronized long evictionCount() {
+        return evictions;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiry;
+
+        private Entry(final V value, final long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * A count-min sketch four rows deep, of counters that stop at 15. They are halved once
+     * ten times as many accesses as the cache holds entries have been counted, so that
+     * what was popular long ago fades away.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb2d8ecb5, 0x5b8f2c6d, 0x3c6ef372};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+
+        private FrequencySketch(final int maximumSize) {
+            // a few counters per entry in each row keeps collisions rare
+            final int width =
+                    Integer.highestOneBit(Math.min(Math.max(16, maximumSize), 1 << 24) - 1) << 3;
+            this.counters = new byte[SEEDS.length * width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * maximumSize;
+        }
+
+        private void increment(final int hash) {
+            for (int row = 0; row < SEEDS.length; row++) {
+                final int index = indexOf(hash, row);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                }
+            }
+            if (++samples >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                samples /= 2;
+            }
+        }
+
+        private int frequency(final int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(final int hash, final int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}
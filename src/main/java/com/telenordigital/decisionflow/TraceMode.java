@@ -0,0 +1,13 @@
+package com.telenordigital.decisionflow;
+
+/**
+ * How much of the way to each decision is recorded for getDecisionPath().
+ */
+public enum TraceMode {
+    /** Nothing is recorded, decision paths are empty. */
+    OFF,
+    /** Visited elements are recorded as indices and resolved when a path is asked for. */
+    COMPACT,
+    /** Each decision gets a copy of the path right away. */
+    FULL
+}
@@ -0,0 +1,203 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber;
+import com.telenordigital.decisionflow.DecisionFlowException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Describes an XMI file in a single forward pass with StAX, without building a DOM.
+ * Stereotypes may be applied after, or defined after, the states they refer to, and they
+ * decide the type of an element, so no descriptor is handed to the callback before the end
+ * of the document. Until then every state and transition is buffered as an XMIVertex, a
+ * handful of strings each, along with the stereotype tables.
+ */
+public abstract class AbstractStreamingXMIDescriber implements DecisionFlowDescriber {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    private final Path path;
+    private InputStream inputStream;
+
+    protected AbstractStreamingXMIDescriber(final Path path) {
+        if (!Files.exists(path)) {
+            throw new DecisionFlowException(String.format("No such file: %s", path));
+        }
+        this.path = path;
+        this.inputStream = null;
+    }
+
+    /**
+     * The stream is read by the first call to getElements, and is not closed.
+     */
+    protected AbstractStreamingXMIDescriber(final InputStream inputStream) {
+        this.path = null;
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public void getElements(final Callback callback) {
+        final Properties properties = getLabels();
+        final List<XMIVertex> vertices = new ArrayList<>();
+        final StereotypeCollector collector = newStereotypeCollector();
+        if (path != null) {
+            try (InputStream in = Files.newInputStream(path)) {
+                read(in, vertices, collector);
+            } catch (IOException e) {
+                throw new DecisionFlowException("Could not read UML.", e);
+            }
+        } else {
+            read(takeInputStream(), vertices, collector);
+        }
+        final Map<String, Map<String, Object>> attrMaps = new HashMap<>();
+        final Map<String, List<String>> stereotypeMap = new HashMap<>();
+        collector.finish(attrMaps, stereotypeMap);
+        XMIVertex.describe(vertices, properties, attrMaps, stereotypeMap, callback);
+    }
+
+    protected Path getPath() {
+        return path;
+    }
+
+    protected abstract Properties getLabels();
+    protected abstract Map<String, String> getNsMap();
+    protected abstract StereotypeCollector newStereotypeCollector();
+
+    private synchronized InputStream takeInputStream() {
+        if (inputStream == null) {
+            throw new DecisionFlowException("The input stream has already been read.");
+        }
+        final InputStream in = inputStream;
+        inputStream = null;
+        return in;
+    }
+
+    private void read(
+            final InputStream in,
+            final List<XMIVertex> vertices,
+            final StereotypeCollector collector) {
+        final String xmiNs = getNsMap().get("xmi");
+        final Deque<Frame> frames = new ArrayDeque<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final String localName = reader.getLocalName();
+                        final String ns = reader.getNamespaceURI();
+                        final String id = reader.getAttributeValue(xmiNs, "id");
+                        frames.push(new Frame(localName, ns, nonEmpty(id),
+                                nonEmpty(reader.getAttributeValue(null, "name"))));
+                        if ((ns == null || ns.isEmpty())
+                                && ("subvertex".equals(localName)
+                                        || "transition".equals(localName))) {
+                            vertices.add(new XMIVertex(
+                                    localName,
+                                    nonEmpty(id),
+                                    nonEmpty(reader.getAttributeValue(xmiNs, "type")),
+                                    nonEmpty(reader.getAttributeValue(null, "kind")),
+                                    nonEmpty(reader.getAttributeValue(null, "name")),
+                                    nonEmpty(reader.getAttributeValue(null, "source")),
+                                    nonEmpty(reader.getAttributeValue(null, "target"))));
+                        }
+                        collector.startElement(reader, frames);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        frames.pop();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new DecisionFlowException("Unexpected UML", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to read anyway
+                }
+            }
+        }
+    }
+
+    static String nonEmpty(final String value) {
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Gathers stereotypes and their attributes while the file is read, for one call
+     * to getElements.
+     */
+    protected interface StereotypeCollector {
+        /**
+         * Called for each start tag; the first frame is the element just started, followed
+         * by its ancestors.
+         */
+        void startElement(XMLStreamReader reader, Deque<Frame> frames);
+
+        void finish(
+                Map<String, Map<String, Object>> attrMaps,
+                Map<String, List<String>> stereotypeMap);
+    }
+
+    /**
+     * An element that has been started but not ended yet.
+     */
+    protected static final class Frame {
+        private final String localName;
+        private final String namespaceURI;
+        private final String id;
+        private final String name;
+
+        private Frame(
+                final String localName,
+                final String namespaceURI,
+                final String id,
+                final String name) {
+            this.localName = localName;
+            this.namespaceURI = namespaceURI;
+            this.id = id;
+            this.name = name;
+        }
+
+        public String getLocalName() {
+            return localName;
+        }
+
+        public String getNamespaceURI() {
+            return namespaceURI;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
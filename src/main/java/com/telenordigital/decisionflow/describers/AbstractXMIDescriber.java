@@ -3,25 +3,33 @@ package com.telenordigital.decisionflow.describers;
 import com.telenordigital.decisionflow.DecisionFlowDescriber;
 import com.telenordigital.decisionflow.DecisionFlowException;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 public abstract class AbstractXMIDescriber implements DecisionFlowDescriber {
 
     private final String umlFilePath;
 
+    private final Map<String, String> nsMap = getNsMap();
     private final XPath xPath = createXPath();
     final InputSource inputSource;
 
@@ -37,126 +45,111 @@ public abstract class AbstractXMIDescriber implements DecisionFlowDescriber {
     @Override
     public void getElements(final Callback callback) {
         final Properties properties = getLabels(umlFilePath);
+        final XMIModel model = parse();
         Map<String, Map<String, Object>> attrMaps = new HashMap<>();
         Map<String, List<String>> stereotypeMap = new HashMap<>();
-        processStereotypes(attrMaps, stereotypeMap);
-        final String query = "//subvertex | //transition";
-        final List<String> namesWithLabels = new ArrayList<>();
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate(query, inputSource, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
-        }
-        for (int i = 0; i < elements.getLength(); i++) {
-            final Node node = elements.item(i);
-            ElementType elementType = null;
-
-            if ("transition".equals(node.getNodeName())) {
-                elementType = ElementType.ARROW;
-            } else if ("subvertex".equals(node.getNodeName())) {
-                String nodeType = eval("@xmi:type", node);
-                if ("uml:State".equals(nodeType)) {
-                    elementType = ElementType.TARGET;
-                } else if ("uml:Pseudostate".equals(nodeType)) {
-                    String nodeKind = eval("@kind", node);
-                    if ("choice".equals(nodeKind)) {
-                        final List<String> stereotypes = stereotypeMap.get(eval("@xmi:id", node));
-                        if (stereotypes != null &&
-                                (stereotypes.contains("Random") || stereotypes.contains("random"))) {
-                            elementType = ElementType.RANDOM_SWITCH;
-                        } else {
-                            elementType = ElementType.SWITCH;
-                        }
-                    } else if (nodeKind == null || "initial".equals(nodeKind)) {
-                        elementType = ElementType.INITIAL;
-                    }
-                }
-            }
-
-            if (elementType == null) {
-                continue;
-            }
-
-            final String name = eval("@name", node);
-            final String label = name != null ? properties.getProperty(name) : null;
-            if (label != null && !label.isEmpty()) {
-                if (namesWithLabels.contains(name)) {
-                    throw new PapyrusException(
-                            String.format("Duplicate element name: %s", name));
-                }
-                namesWithLabels.add(name);
-            }
-
-            final ElementType finalElementType = elementType;
-            callback.newElement(new ElementDescriptor() {
-
-                @Override
-                public ElementType getType() {
-                    return finalElementType;
-                }
-                @Override
-                public String getName() {
-                    return name;
-                }
-
-                @Override
-                public String getId() {
-                    return eval("@xmi:id", node);
-                }
-
-                @Override
-                public String getExpression() {
-                    return label != null ? label : name;
-                }
-
-                @Override
-                public Map<String, Object> getAttributes() {
-                    return attrMaps.get(getId());
-                }
-
-                @Override
-                public String getSourceNodeId() {
-                    return eval("@source", node);
-                }
-
-                @Override
-                public String getDestinationNodeId() {
-                    return eval("@target", node);
-                }
-                @Override
-                public boolean isDefault() {
-                    if (isObligatory()) {
-                        return false;
-                    }
-                    return getExpression() == null || getExpression().isEmpty();
-                }
-                @Override
-                public boolean isObligatory() {
-                    return (stereotypeMap.get(getId()) == null)
-                            ? false
-                            : stereotypeMap.get(getId()).contains("always");
-                }
-            });
-        }
+        processStereotypes(model, attrMaps, stereotypeMap);
+        XMIVertex.describe(
+                model.vertices, properties, attrMaps, stereotypeMap, callback);
     }
 
+    /**
+     * @deprecated only for subclasses that still query the file in processStereotypes(Map,
+     * Map); the parsed model handed to processStereotypes(XMIModel, Map, Map) replaces it.
+     */
+    @Deprecated
     protected XPath getXPath() {
         return xPath;
     }
 
+    /**
+     * @deprecated see getXPath().
+     */
+    @Deprecated
     protected InputSource getInputSource() {
         return inputSource;
     }
 
-    protected abstract void processStereotypes(
+    /**
+     * Collects the attributes and stereotypes of the elements from the parsed model. Until
+     * overridden, it hands over to processStereotypes(Map, Map), which subclasses written for
+     * earlier versions implement.
+     */
+    @SuppressWarnings("deprecation")
+    protected void processStereotypes(
+            final XMIModel model,
+            final Map<String, Map<String, Object>> attrMaps,
+            final Map<String, List<String>> stereotypeMap) {
+        processStereotypes(attrMaps, stereotypeMap);
+    }
+
+    /**
+     * @deprecated override processStereotypes(XMIModel, Map, Map) instead, which gets the
+     * file parsed and indexed rather than querying it again.
+     */
+    @Deprecated
+    protected void processStereotypes(
             final Map<String, Map<String, Object>> attrMaps,
-            final Map<String, List<String>> stereotypeMap);
+            final Map<String, List<String>> stereotypeMap) {
+        throw new DecisionFlowException(String.format(
+                "%s does not implement processStereotypes.", getClass().getName()));
+    }
+
     protected abstract Properties getLabels(final String umlFilePath);
     protected abstract Map<String, String> getNsMap();
 
+    /**
+     * The names of the elements, besides states and transitions, that processStereotypes
+     * looks at; parse collects them as it goes, so they need no query of their own.
+     */
+    protected Set<String> getIndexedElementNames() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Parses the file once and indexes it in the same pass: the states and transitions in
+     * document order, every element by its xmi:id, and the elements with the names asked for
+     * by getIndexedElementNames in document order.
+     */
+    private XMIModel parse() {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(new InputSource(umlFilePath));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new DecisionFlowException("Unexpected UML", e);
+        }
+        final List<XMIVertex> vertices = new ArrayList<>();
+        final Map<String, Element> elementsById = new HashMap<>();
+        final Set<String> indexedNames = getIndexedElementNames();
+        final Map<String, List<Element>> elementsByName = new HashMap<>();
+        final NodeList all = document.getElementsByTagName("*");
+        for (int i = 0; i < all.getLength(); i++) {
+            final Element element = (Element) all.item(i);
+            final String nodeName = element.getNodeName();
+            final String id = attribute(element, "xmi:id");
+            if ("subvertex".equals(nodeName) || "transition".equals(nodeName)) {
+                vertices.add(new XMIVertex(
+                        nodeName,
+                        id,
+                        attribute(element, "xmi:type"),
+                        attribute(element, "kind"),
+                        attribute(element, "name"),
+                        attribute(element, "source"),
+                        attribute(element, "target")));
+            }
+            if (id != null) {
+                elementsById.putIfAbsent(id, element);
+            }
+            if (indexedNames.contains(nodeName)) {
+                elementsByName.computeIfAbsent(nodeName, name -> new ArrayList<>()).add(element);
+            }
+        }
+        return new XMIModel(document, vertices, elementsById, elementsByName);
+    }
+
     private XPath createXPath() {
-        final  Map<String, String> nsMap = getNsMap();
         final NamespaceContext nsContext = new NamespaceContext() {
             @SuppressWarnings("rawtypes")
             @Override
@@ -177,6 +170,10 @@ public abstract class AbstractXMIDescriber implements DecisionFlowDescriber {
         return xPath;
     }
 
+    /**
+     * @deprecated see getXPath(); attribute(node, name) reads attributes without XPath.
+     */
+    @Deprecated
     protected String eval(final String query, final Node node) {
         try {
             String result = getXPath().evaluate(query, node);
@@ -186,8 +183,62 @@ public abstract class AbstractXMIDescriber implements DecisionFlowDescriber {
         }
     }
 
+    /**
+     * Reads an attribute the way eval("@name", node) would, without going through XPath.
+     * A prefixed name is resolved with the namespace map of the describer.
+     */
+    protected String attribute(final Node node, final String name) {
+        if (!(node instanceof Element)) {
+            return null;
+        }
+        final int colon = name.indexOf(':');
+        final String result = (colon < 0)
+                ? ((Element) node).getAttribute(name)
+                : ((Element) node).getAttributeNS(
+                        nsMap.get(name.substring(0, colon)), name.substring(colon + 1));
+        return (result == null || result.isEmpty()) ? null : result;
+    }
+
+    /**
+     * A parsed XMI file, with its elements indexed by xmi:id and, for the names asked for,
+     * by name.
+     */
+    protected static final class XMIModel {
+        private final Document document;
+        private final List<XMIVertex> vertices;
+        private final Map<String, Element> elementsById;
+        private final Map<String, List<Element>> elementsByName;
+
+        private XMIModel(
+                final Document document,
+                final List<XMIVertex> vertices,
+                final Map<String, Element> elementsById,
+                final Map<String, List<Element>> elementsByName) {
+            this.document = document;
+            this.vertices = vertices;
+            this.elementsById = elementsById;
+            this.elementsByName = elementsByName;
+        }
+
+        public Document getDocument() {
+            return document;
+        }
+
+        public Element getElementById(final String id) {
+            return elementsById.get(id);
+        }
+
+        /**
+         * The elements with one of the names given by getIndexedElementNames, in document
+         * order.
+         */
+        public List<Element> getElementsByName(final String name) {
+            return elementsByName.getOrDefault(name, Collections.emptyList());
+        }
+    }
+
     @SuppressWarnings("serial")
-    public class PapyrusException extends DecisionFlowException {
+    public static class PapyrusException extends DecisionFlowException {
         PapyrusException(final String message) {
             super(message);
         }
@@ -2,23 +2,69 @@ package com.telenordigital.decisionflow.describers;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.telenordigital.decisionflow.DecisionFlowDescriber;
 import com.telenordigital.decisionflow.DecisionFlowException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Describes a flow with JSON, and writes any described flow as JSON. A describer read from
+ * an InputStream, a Reader or a Path does not keep the elements: they are parsed one by one
+ * and handed to the callback each time getElements is called.
+ */
 public class JsonDescriber implements DecisionFlowDescriber {
 
     private static final ObjectMapper mapper = new ObjectMapper();
+    // streams and writers are owned by the caller
+    private static final JsonFactory factory = mapper.getFactory().copy()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectReader elementReader = mapper.readerFor(ElementDescriptorImpl.class);
+    private static final ObjectWriter elementWriter = mapper.writerFor(ElementDescriptorImpl.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 
-    private List<ElementDescriptor> elements = new ArrayList<>();
+    private final List<ElementDescriptor> elements;
+    private final Path path;
+    private Object input;
 
-    private JsonDescriber(final DecisionFlowDescriber describer) {
+    private JsonDescriber(final List<ElementDescriptor> elements) {
+        this.elements = elements;
+        this.path = null;
+    }
+
+    private JsonDescriber(final Path path, final Object input) {
+        if (path != null && !Files.exists(path)) {
+            throw new DecisionFlowException(String.format("No such file: %s", path));
+        }
+        this.elements = null;
+        this.path = path;
+        this.input = input;
+    }
+
+    /**
+     * Takes a copy of the elements of the describer, which is not read again.
+     */
+    public static DecisionFlowDescriber getInstance(final DecisionFlowDescriber describer) {
+        final List<ElementDescriptor> elements = new ArrayList<>();
         describer.getElements(new Callback() {
 
             @Override
@@ -26,41 +72,136 @@ public class JsonDescriber implements DecisionFlowDescriber {
                 elements.add(new ElementDescriptorImpl(elementDescriptor));
             }
         });
+        return new JsonDescriber(elements);
     }
 
-    private JsonDescriber(final String json) {
-        try {
-            this.elements =
-                    mapper.readValue(json,
-                            TypeFactory
-                            .defaultInstance()
-                            .constructCollectionType(List.class, ElementDescriptorImpl.class));
+    public static DecisionFlowDescriber getInstance(final String json) {
+        final List<ElementDescriptor> elements = new ArrayList<>();
+        try (JsonParser parser = factory.createParser(json)) {
+            parse(parser, elements::add);
         } catch (IOException e) {
             throw new DecisionFlowException("Could not deserialize json string.");
         }
+        return new JsonDescriber(elements);
     }
 
+    public static DecisionFlowDescriber getInstance(final Path path) {
+        return new JsonDescriber(path, null);
+    }
 
-    public static DecisionFlowDescriber getInstance(final DecisionFlowDescriber describer) {
-        return new JsonDescriber(describer);
+    /**
+     * The stream is read by the first call to getElements (or to getJson or writeJson),
+     * and is not closed.
+     */
+    public static DecisionFlowDescriber getInstance(final InputStream inputStream) {
+        return new JsonDescriber(null, inputStream);
     }
 
-    public static DecisionFlowDescriber getInstance(final String json) {
-        return new JsonDescriber(json);
+    /**
+     * The reader is read by the first call to getElements (or to getJson or writeJson),
+     * and is not closed.
+     */
+    public static DecisionFlowDescriber getInstance(final Reader reader) {
+        return new JsonDescriber(null, reader);
     }
 
     public String getJson() {
+        final StringWriter writer = new StringWriter();
+        writeJson(writer);
+        return writer.toString();
+    }
+
+    public void writeJson(final OutputStream outputStream) {
+        try (JsonGenerator generator = factory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            writeJson(generator);
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not serialize elements.", e);
+        }
+    }
+
+    public void writeJson(final Writer writer) {
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeJson(generator);
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not serialize elements.", e);
+        }
+    }
+
+    private void writeJson(final JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
         try {
-            return mapper.writeValueAsString(elements);
-        } catch (JsonProcessingException e) {
-            throw new DecisionFlowException("Could not serialize elements.");
+            getElements(new Callback() {
+                @Override
+                public void newElement(final ElementDescriptor elementDescriptor) {
+                    try {
+                        elementWriter.writeValue(generator,
+                                (elementDescriptor instanceof ElementDescriptorImpl)
+                                        ? elementDescriptor
+                                        : new ElementDescriptorImpl(elementDescriptor));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        generator.writeEndArray();
     }
 
     @Override
     public void getElements(Callback callback) {
-        for (ElementDescriptor element : elements) {
-            callback.newElement(element);
+        if (elements != null) {
+            for (ElementDescriptor element : elements) {
+                callback.newElement(element);
+            }
+            return;
+        }
+        try (JsonParser parser = openParser()) {
+            parse(parser, callback);
+        } catch (IOException e) {
+            throw new DecisionFlowException("Could not deserialize json.", e);
+        }
+    }
+
+    private JsonParser openParser() throws IOException {
+        if (path != null) {
+            // the parser closes the file
+            return mapper.getFactory().createParser(Files.newInputStream(path));
+        }
+        final Object in = takeInput();
+        return (in instanceof Reader)
+                ? factory.createParser((Reader) in)
+                : factory.createParser((InputStream) in);
+    }
+
+    private synchronized Object takeInput() {
+        if (input == null) {
+            throw new DecisionFlowException("The input has already been read.");
+        }
+        final Object in = input;
+        input = null;
+        return in;
+    }
+
+    /**
+     * Hands the elements of the array to the callback as soon as each of them is parsed.
+     */
+    private static void parse(
+            final JsonParser parser,
+            final Callback callback) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new DecisionFlowException("Could not deserialize json: array expected.");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            callback.newElement(elementReader.readValue(parser));
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new DecisionFlowException("Could not deserialize json: element expected.");
+        }
+        if (parser.nextToken() != null) {
+            throw new DecisionFlowException(
+                    "Could not deserialize json: nothing expected after the array.");
         }
     }
 
@@ -11,8 +11,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -29,6 +28,10 @@ public class Papyrus extends AbstractXMIDescriber {
 
     @Override
     protected Properties getLabels(final String umlFilePath) {
+        return readLabels(umlFilePath);
+    }
+
+    static Properties readLabels(final String umlFilePath) {
         final Path path = Paths.get(umlFilePath);
         final String[] fileAndExtension = path.getFileName().toString().split("\\.");
         if (fileAndExtension.length != 2 || !"uml".equals(fileAndExtension[1])) {
@@ -53,6 +56,10 @@ public class Papyrus extends AbstractXMIDescriber {
 
     @Override
     protected Map<String, String> getNsMap() {
+        return namespaces();
+    }
+
+    static Map<String, String> namespaces() {
         final Map<String, String> nsMap = new HashMap<>();
         nsMap.put("xmi", "http://www.omg.org/spec/XMI/20131001");
         nsMap.put("xsi", "http://www.w3.org/2001/XMLSchema-instance");
@@ -63,23 +70,27 @@ public class Papyrus extends AbstractXMIDescriber {
 
     @Override
     protected void processStereotypes(
+            final XMIModel model,
             Map<String, Map<String, Object>> attrMaps,
             Map<String, List<String>> stereotypeMap) {
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate("/xmi:XMI/*",
-                    getInputSource(), XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
+        // the stereotype applications are children of the xmi:XMI root
+        final Element root = model.getDocument().getDocumentElement();
+        if (!"XMI".equals(root.getLocalName())
+                || !getNsMap().get("xmi").equals(root.getNamespaceURI())) {
+            return;
         }
+        final NodeList elements = root.getChildNodes();
         for (int i = 0; i < elements.getLength(); i++) {
             final Node node = elements.item(i);
-            String baseState = eval("@base_State", node);
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String baseState = attribute(node, "base_State");
             if (baseState == null || baseState.isEmpty()) {
-                baseState = eval("@base_Pseudostate", node);
+                baseState = attribute(node, "base_Pseudostate");
             }
             if (baseState == null || baseState.isEmpty()) {
-                baseState = eval("@base_Transition", node);
+                baseState = attribute(node, "base_Transition");
             }
             if (baseState != null && !baseState.isEmpty()) {
                 final Map<String, Object> attrs = new HashMap<>();
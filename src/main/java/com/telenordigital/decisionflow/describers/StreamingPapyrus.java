@@ -0,0 +1,107 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.xml.stream.XMLStreamReader;
+
+public class StreamingPapyrus extends AbstractStreamingXMIDescriber {
+
+    private final Properties labels;
+
+    StreamingPapyrus(final Path umlFilePath) {
+        super(umlFilePath);
+        this.labels = null;
+    }
+
+    StreamingPapyrus(final InputStream inputStream, final Properties labels) {
+        super(inputStream);
+        this.labels = labels;
+    }
+
+    /**
+     * The labels are read from the properties file next to the model, like Papyrus does.
+     */
+    public static DecisionFlowDescriber getInstance(final Path umlFilePath) {
+        return new StreamingPapyrus(umlFilePath);
+    }
+
+    public static DecisionFlowDescriber getInstance(
+            final InputStream inputStream,
+            final Properties labels) {
+        return new StreamingPapyrus(inputStream, labels);
+    }
+
+    @Override
+    protected Properties getLabels() {
+        if (getPath() != null) {
+            return Papyrus.readLabels(getPath().toString());
+        }
+        return (labels != null) ? labels : new Properties();
+    }
+
+    @Override
+    protected Map<String, String> getNsMap() {
+        return Papyrus.namespaces();
+    }
+
+    @Override
+    protected StereotypeCollector newStereotypeCollector() {
+        final String xmiNs = getNsMap().get("xmi");
+        final Map<String, Map<String, Object>> collectedAttrMaps = new HashMap<>();
+        final Map<String, List<String>> collectedStereotypes = new HashMap<>();
+        return new StereotypeCollector() {
+
+            @Override
+            public void startElement(final XMLStreamReader reader, final Deque<Frame> frames) {
+                // stereotype applications are the children of the root element
+                if (frames.size() != 2
+                        || !"XMI".equals(frames.peekLast().getLocalName())
+                        || !xmiNs.equals(frames.peekLast().getNamespaceURI())) {
+                    return;
+                }
+                String baseState = nonEmpty(reader.getAttributeValue(null, "base_State"));
+                if (baseState == null) {
+                    baseState = nonEmpty(reader.getAttributeValue(null, "base_Pseudostate"));
+                }
+                if (baseState == null) {
+                    baseState = nonEmpty(reader.getAttributeValue(null, "base_Transition"));
+                }
+                if (baseState == null) {
+                    return;
+                }
+                final Map<String, Object> attrs = new HashMap<>();
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    final String prefix = reader.getAttributePrefix(i);
+                    final String name = reader.getAttributeLocalName(i);
+                    if ((prefix == null || prefix.isEmpty()) && !name.equals(baseState)) {
+                        attrs.put(name, reader.getAttributeValue(i));
+                    }
+                }
+                if (!attrs.isEmpty()) {
+                    collectedAttrMaps.put(baseState, attrs);
+                }
+                final String prefix = reader.getPrefix();
+                if (prefix != null && !prefix.isEmpty()) {
+                    collectedStereotypes
+                            .computeIfAbsent(baseState, k -> new ArrayList<>())
+                            .add(reader.getLocalName());
+                }
+            }
+
+            @Override
+            public void finish(
+                    final Map<String, Map<String, Object>> attrMaps,
+                    final Map<String, List<String>> stereotypeMap) {
+                attrMaps.putAll(collectedAttrMaps);
+                stereotypeMap.putAll(collectedStereotypes);
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.xml.stream.XMLStreamReader;
+
+public class StreamingVisualParadigm extends AbstractStreamingXMIDescriber {
+
+    StreamingVisualParadigm(final Path umlFilePath) {
+        super(umlFilePath);
+    }
+
+    StreamingVisualParadigm(final InputStream inputStream) {
+        super(inputStream);
+    }
+
+    public static DecisionFlowDescriber getInstance(final Path umlFilePath) {
+        return new StreamingVisualParadigm(umlFilePath);
+    }
+
+    public static DecisionFlowDescriber getInstance(final InputStream inputStream) {
+        return new StreamingVisualParadigm(inputStream);
+    }
+
+    @Override
+    protected Properties getLabels() {
+        return new Properties();
+    }
+
+    @Override
+    protected Map<String, String> getNsMap() {
+        return VisualParadigm.namespaces();
+    }
+
+    /**
+     * Applied stereotypes and tagged values refer to ownedMember elements, which usually come
+     * later in the file. The references are kept until the end and resolved through a table
+     * of the ownedMembers seen.
+     */
+    @Override
+    protected StereotypeCollector newStereotypeCollector() {
+        final String xmiNs = getNsMap().get("xmi");
+        final Map<String, String[]> ownedMembers = new HashMap<>();
+        final List<String[]> appliedStereotypes = new ArrayList<>();
+        final List<String[]> taggedValues = new ArrayList<>();
+        return new StereotypeCollector() {
+
+            @Override
+            public void startElement(final XMLStreamReader reader, final Deque<Frame> frames) {
+                final Frame frame = frames.peek();
+                if (frame.getNamespaceURI() != null && !frame.getNamespaceURI().isEmpty()) {
+                    return;
+                }
+                switch (frame.getLocalName()) {
+                    case "ownedMember":
+                        if (frame.getId() != null) {
+                            ownedMembers.putIfAbsent(frame.getId(), new String[] {
+                                frame.getName(),
+                                nonEmpty(reader.getAttributeValue(null, "tag")),
+                                nonEmpty(reader.getAttributeValue(null, "value"))});
+                        }
+                        break;
+                    case "appliedStereotype":
+                        final Frame owner = ancestor(frames, 2);
+                        if (owner != null && owner.getId() != null) {
+                            appliedStereotypes.add(new String[] {
+                                owner.getId(),
+                                nonEmpty(reader.getAttributeValue(xmiNs, "value"))});
+                        }
+                        break;
+                    case "modelRef":
+                        if (isTaggedValueRef(frames)) {
+                            taggedValues.add(new String[] {
+                                ancestor(frames, 6).getId(),
+                                nonEmpty(reader.getAttributeValue(null, "value"))});
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            private boolean isTaggedValueRef(final Deque<Frame> frames) {
+                final Frame property = ancestor(frames, 3);
+                final Frame extension = ancestor(frames, 5);
+                final Frame owner = ancestor(frames, 6);
+                return isNamed(ancestor(frames, 1), "vpumlChildModelRefs")
+                        && isNamed(ancestor(frames, 2), "vpumlModel")
+                        && isNamed(property, "property")
+                        && "taggedValues".equals(property.getName())
+                        && isNamed(ancestor(frames, 4), "properties")
+                        && isNamed(extension, "Extension")
+                        && xmiNs.equals(extension.getNamespaceURI())
+                        && owner != null
+                        && owner.getId() != null;
+            }
+
+            @Override
+            public void finish(
+                    final Map<String, Map<String, Object>> attrMaps,
+                    final Map<String, List<String>> stereotypeMap) {
+                for (final String[] applied : appliedStereotypes) {
+                    final String[] stereotype = ownedMembers.get(applied[1]);
+                    if (stereotype != null && stereotype[0] != null) {
+                        stereotypeMap
+                                .computeIfAbsent(applied[0], k -> new ArrayList<>())
+                                .add(stereotype[0]);
+                    }
+                }
+                for (final String[] tagged : taggedValues) {
+                    final String[] taggedValue = ownedMembers.get(tagged[1]);
+                    if (taggedValue != null) {
+                        attrMaps
+                                .computeIfAbsent(tagged[0], k -> new HashMap<>())
+                                .put(taggedValue[1], taggedValue[2]);
+                    }
+                }
+            }
+        };
+    }
+
+    private static boolean isNamed(final Frame frame, final String localName) {
+        return frame != null && localName.equals(frame.getLocalName());
+    }
+
+    private static Frame ancestor(final Deque<Frame> frames, final int generation) {
+        final Iterator<Frame> iterator = frames.iterator();
+        Frame frame = null;
+        for (int i = 0; i <= generation; i++) {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            frame = iterator.next();
+        }
+        return frame;
+    }
+}
@@ -1,16 +1,16 @@
 package com.telenordigital.decisionflow.describers;
 
 import com.telenordigital.decisionflow.DecisionFlowDescriber;
-import com.telenordigital.decisionflow.DecisionFlowException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
+import java.util.Set;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 public class VisualParadigm extends AbstractXMIDescriber {
 
@@ -29,34 +29,52 @@ public class VisualParadigm extends AbstractXMIDescriber {
 
     @Override
     protected Map<String, String> getNsMap() {
+        return namespaces();
+    }
+
+    static Map<String, String> namespaces() {
         final Map<String, String> nsMap = new HashMap<>();
         nsMap.put("xmi", "http://schema.omg.org/spec/XMI/2.1");
         nsMap.put("uml", "http://schema.omg.org/spec/UML/2.0");
         return nsMap;
     }
 
+    @Override
+    protected Set<String> getIndexedElementNames() {
+        return new HashSet<>(Arrays.asList("appliedStereotype", "modelRef", "ownedMember"));
+    }
+
+    /**
+     * Applied stereotypes and tagged values refer to ownedMember elements by xmi:id. The
+     * first ownedMember in the document with the id is taken, as other elements, or further
+     * ownedMembers, may carry the same id.
+     */
     @Override
     protected void processStereotypes(
+            final XMIModel model,
             Map<String, Map<String, Object>> attrMaps,
             Map<String, List<String>> stereotypeMap) {
-        processStereotypeNames(stereotypeMap);
-        processStereotypeValues(attrMaps);
+        final Map<String, Element> ownedMembers = new HashMap<>();
+        for (final Element ownedMember : model.getElementsByName("ownedMember")) {
+            final String id = attribute(ownedMember, "xmi:id");
+            if (id != null) {
+                ownedMembers.putIfAbsent(id, ownedMember);
+            }
+        }
+        processStereotypeNames(model, ownedMembers, stereotypeMap);
+        processStereotypeValues(model, ownedMembers, attrMaps);
     }
 
-    private void processStereotypeNames(Map<String, List<String>> stereotypeMap) {
-        final String query = "//appliedStereotype";
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate(query, inputSource, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
-        }
-        for (int i = 0; i < elements.getLength(); i++) {
-            final Node node = elements.item(i);
-            final String appliedStereotypeId = eval("@xmi:value", node);
-            final String stereotypeName = getStereotypeName(appliedStereotypeId);
+    private void processStereotypeNames(
+            final XMIModel model,
+            final Map<String, Element> ownedMembers,
+            final Map<String, List<String>> stereotypeMap) {
+        for (final Element node : model.getElementsByName("appliedStereotype")) {
+            final String appliedStereotypeId = attribute(node, "xmi:value");
+            final String stereotypeName = getStereotypeName(ownedMembers, appliedStereotypeId);
             if (stereotypeName != null && !stereotypeName.isEmpty()) {
-                final String parentNodeId = eval("@xmi:id", node.getParentNode().getParentNode());
+                final String parentNodeId =
+                        attribute(node.getParentNode().getParentNode(), "xmi:id");
                 if (parentNodeId != null && !parentNodeId.isEmpty()) {
                     List<String> stereotypeNames = stereotypeMap.get(parentNodeId);
                     if (stereotypeNames == null) {
@@ -69,28 +87,30 @@ public class VisualParadigm extends AbstractXMIDescriber {
         }
     }
 
-    private void processStereotypeValues(final Map<String, Map<String, Object>> attrMaps) {
-        final String query =
-                "//xmi:Extension/properties/property[@name='taggedValues']/vpumlModel/vpumlChildModelRefs/modelRef";
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate(query, inputSource, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
-        }
-        for (int i = 0; i < elements.getLength(); i++) {
-            final Node node = elements.item(i);
-            final String taggedValueRef = eval("@value", node);
-            final Map<String, String> keyValuePair = getTaggedValue(taggedValueRef);
+    /**
+     * Tagged values are the modelRefs at
+     * xmi:Extension/properties/property[@name='taggedValues']/vpumlModel/vpumlChildModelRefs.
+     */
+    private void processStereotypeValues(
+            final XMIModel model,
+            final Map<String, Element> ownedMembers,
+            final Map<String, Map<String, Object>> attrMaps) {
+        for (final Element node : model.getElementsByName("modelRef")) {
+            if (!isTaggedValueRef(node)) {
+                continue;
+            }
+            final String taggedValueRef = attribute(node, "value");
+            final Map<String, String> keyValuePair = getTaggedValue(ownedMembers, taggedValueRef);
             if (!keyValuePair.isEmpty()) {
-                final String parentNodeId = eval("@xmi:id",
+                final String parentNodeId = attribute(
                         node
                         .getParentNode()
                         .getParentNode()
                         .getParentNode()
                         .getParentNode()
                         .getParentNode()
-                        .getParentNode());
+                        .getParentNode(),
+                        "xmi:id");
                 assert parentNodeId != null : "No parrent node found for " + node.toString();
                 Map<String, Object> attrMap = attrMaps.get(parentNodeId);
                 if (attrMap == null) {
@@ -103,39 +123,37 @@ public class VisualParadigm extends AbstractXMIDescriber {
         }
     }
 
-    private Map<String, String> getTaggedValue(String taggedValueRef) {
-        final String query = String.format("//ownedMember[@xmi:id='%s']", taggedValueRef);
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate(query, inputSource, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
-        }
-        Map<String, String> keyValuePair = new HashMap<>();
+    private boolean isTaggedValueRef(final Node modelRef) {
+        final Node refs = modelRef.getParentNode();
+        final Node vpumlModel = (refs == null) ? null : refs.getParentNode();
+        final Node property = (vpumlModel == null) ? null : vpumlModel.getParentNode();
+        final Node properties = (property == null) ? null : property.getParentNode();
+        final Node extension = (properties == null) ? null : properties.getParentNode();
+        return extension != null
+                && "vpumlChildModelRefs".equals(refs.getNodeName())
+                && "vpumlModel".equals(vpumlModel.getNodeName())
+                && "property".equals(property.getNodeName())
+                && "taggedValues".equals(attribute(property, "name"))
+                && "properties".equals(properties.getNodeName())
+                && "Extension".equals(extension.getLocalName())
+                && getNsMap().get("xmi").equals(extension.getNamespaceURI());
+    }
 
-        for (int i = 0; i < elements.getLength(); i++) {
-            final String key = eval("@tag", elements.item(i));
-            final String value = eval("@value", elements.item(i));
-            keyValuePair.put(key, value);
-            break;
+    private Map<String, String> getTaggedValue(
+            final Map<String, Element> ownedMembers,
+            final String taggedValueRef) {
+        final Map<String, String> keyValuePair = new HashMap<>();
+        final Element ownedMember = ownedMembers.get(taggedValueRef);
+        if (ownedMember != null) {
+            keyValuePair.put(attribute(ownedMember, "tag"), attribute(ownedMember, "value"));
         }
         return keyValuePair;
     }
 
-    private String getStereotypeName(final String stereotypeId) {
-        final String query = String.format("//ownedMember[@xmi:id='%s']", stereotypeId);
-        NodeList elements = null;
-        try {
-            elements = (NodeList) getXPath().evaluate(query, inputSource, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new DecisionFlowException("Unexpected UML");
-        }
-        String stereotypeName = null;
-
-        for (int i = 0; i < elements.getLength(); i++) {
-            stereotypeName = eval("@name", elements.item(i));
-            break;
-        }
-        return stereotypeName;
+    private String getStereotypeName(
+            final Map<String, Element> ownedMembers,
+            final String stereotypeId) {
+        final Element ownedMember = ownedMembers.get(stereotypeId);
+        return (ownedMember == null) ? null : attribute(ownedMember, "name");
     }
 }
@@ -0,0 +1,181 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.Callback;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The attributes of a subvertex or transition element that are needed to describe it,
+ * whichever way the XMI file was read.
+ */
+final class XMIVertex {
+    private final String nodeName;
+    private final String id;
+    private final String xmiType;
+    private final String kind;
+    private final String name;
+    private final String source;
+    private final String target;
+
+    XMIVertex(
+            final String nodeName,
+            final String id,
+            final String xmiType,
+            final String kind,
+            final String name,
+            final String source,
+            final String target) {
+        this.nodeName = nodeName;
+        this.id = id;
+        this.xmiType = xmiType;
+        this.kind = kind;
+        this.name = name;
+        this.source = source;
+        this.target = target;
+    }
+
+    static void describe(
+            final List<XMIVertex> vertices,
+            final Properties properties,
+            final Map<String, Map<String, Object>> attrMaps,
+            final Map<String, List<String>> stereotypeMap,
+            final Callback callback) {
+        final List<String> namesWithLabels = new ArrayList<>();
+        for (final XMIVertex vertex : vertices) {
+            final ElementType elementType = vertex.getElementType(stereotypeMap);
+            if (elementType == null) {
+                continue;
+            }
+
+            final String name = vertex.name;
+            final String label = name != null ? properties.getProperty(name) : null;
+            if (label != null && !label.isEmpty()) {
+                if (namesWithLabels.contains(name)) {
+                    throw new AbstractXMIDescriber.PapyrusException(
+                            String.format("Duplicate element name: %s", name));
+                }
+                namesWithLabels.add(name);
+            }
+
+            final List<String> stereotypes = stereotypeMap.get(vertex.id);
+            callback.newElement(new XMIElementDescriptor(
+                    vertex.id,
+                    name,
+                    elementType,
+                    attrMaps.get(vertex.id),
+                    label != null ? label : name,
+                    vertex.source,
+                    vertex.target,
+                    stereotypes != null && stereotypes.contains("always")));
+        }
+    }
+
+    private ElementType getElementType(final Map<String, List<String>> stereotypeMap) {
+        if ("transition".equals(nodeName)) {
+            return ElementType.ARROW;
+        }
+        if (!"subvertex".equals(nodeName)) {
+            return null;
+        }
+        if ("uml:State".equals(xmiType)) {
+            return ElementType.TARGET;
+        }
+        if (!"uml:Pseudostate".equals(xmiType)) {
+            return null;
+        }
+        if ("choice".equals(kind)) {
+            final List<String> stereotypes = stereotypeMap.get(id);
+            if (stereotypes != null &&
+                    (stereotypes.contains("Random") || stereotypes.contains("random"))) {
+                return ElementType.RANDOM_SWITCH;
+            }
+            return ElementType.SWITCH;
+        }
+        if (kind == null || "initial".equals(kind)) {
+            return ElementType.INITIAL;
+        }
+        return null;
+    }
+
+    private static final class XMIElementDescriptor implements ElementDescriptor {
+        private final String id;
+        private final String name;
+        private final ElementType type;
+        private final Map<String, Object> attributes;
+        private final String expression;
+        private final String sourceNodeId;
+        private final String destinationNodeId;
+        private final boolean isObligatory;
+
+        private XMIElementDescriptor(
+                final String id,
+                final String name,
+                final ElementType type,
+                final Map<String, Object> attributes,
+                final String expression,
+                final String sourceNodeId,
+                final String destinationNodeId,
+                final boolean isObligatory) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.attributes = attributes;
+            this.expression = expression;
+            this.sourceNodeId = sourceNodeId;
+            this.destinationNodeId = destinationNodeId;
+            this.isObligatory = isObligatory;
+        }
+
+        @Override
+        public ElementType getType() {
+            return type;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getExpression() {
+            return expression;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public String getSourceNodeId() {
+            return sourceNodeId;
+        }
+
+        @Override
+        public String getDestinationNodeId() {
+            return destinationNodeId;
+        }
+
+        @Override
+        public boolean isDefault() {
+            if (isObligatory()) {
+                return false;
+            }
+            return getExpression() == null || getExpression().isEmpty();
+        }
+
+        @Override
+        public boolean isObligatory() {
+            return isObligatory;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.telenordigital.decisionflow;
+
+import org.junit.Test;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ArrowDispatchTest {
+
+    private static final DecisionMachine<Value, String> FLOW =
+            DecisionFlow.getInstance(describer("arrow-dispatch.json"));
+
+    @Test
+    public void testLiteralBeforeDynamicArrows() {
+        assertDecision("a", "literal a", 0);
+    }
+
+    @Test
+    public void testDynamicArrowBeforeLiteral() {
+        assertDecision("b", "dynamic b", 1);
+    }
+
+    @Test
+    public void testDynamicArrowsAfterMatchingLiteralAreNotEvaluated() {
+        assertDecision("c", "literal c", 1);
+    }
+
+    @Test
+    public void testDynamicArrowWithoutLiteral() {
+        assertDecision("e", "dynamic e", 3);
+    }
+
+    @Test
+    public void testNoMatchTakesDefault() {
+        assertDecision("x", "default", 3);
+    }
+
+    private static void assertDecision(
+            final String value,
+            final String payload,
+            final int labelEvaluations) {
+        final Value context = new Value(value);
+        assertThat(FLOW.getDecision(context).getPayload(), equalTo(payload));
+        assertThat(context.labelEvaluations, equalTo(labelEvaluations));
+    }
+
+    public static class Value {
+        private final String value;
+        private int labelEvaluations;
+
+        Value(final String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String label(final String label) {
+            labelEvaluations++;
+            return label;
+        }
+    }
+}
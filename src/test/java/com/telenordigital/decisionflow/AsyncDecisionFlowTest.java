@@ -0,0 +1,114 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AsyncDecisionFlowTest {
+
+    private static final DecisionMachine<Steps, String> FLOW = DecisionFlow.getInstance(describer(
+            node("init", ElementType.INITIAL, null),
+            node("a", ElementType.SWITCH, "step()"),
+            node("b", ElementType.SWITCH, "step()"),
+            node("c", ElementType.TARGET, "'C'"),
+            arrow("init", "a", null, false),
+            arrow("a", "b", null, false),
+            arrow("b", "c", null, false)));
+
+    @Test
+    public void testDecision() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AsyncDecisionMachine<Steps, String> flow =
+                    AsyncDecisionFlow.getInstance(FLOW, executor);
+            final Steps steps = new Steps(null, null);
+            assertThat(flow.getDecisionAsync(steps).get().getPayload(), equalTo("C"));
+            assertThat(flow.getDecisionsAsync(steps, 10, TimeUnit.SECONDS).get().size(),
+                    equalTo(1));
+            assertThat(steps.count.get(), equalTo(4));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Steps steps = new Steps(null, release);
+        final CompletableFuture<Decision<String>> future = AsyncDecisionFlow
+                .getInstance(FLOW, executor)
+                .getDecisionAsync(steps, 50, TimeUnit.MILLISECONDS);
+        try {
+            future.get();
+            fail("Decision should time out.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertThat(steps.count.get(), equalTo(1));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Steps steps = new Steps(started, release);
+        final CompletableFuture<List<Decision<String>>> future = AsyncDecisionFlow
+                .getInstance(FLOW, executor)
+                .getDecisionsAsync(steps);
+        started.await(10, TimeUnit.SECONDS);
+        future.cancel(true);
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertThat(steps.count.get(), equalTo(1));
+        try {
+            future.get();
+            fail("Decision should be cancelled.");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    public static final class Steps {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Steps(final CountDownLatch started, final CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        public boolean step() throws InterruptedException {
+            count.incrementAndGet();
+            if (started != null) {
+                started.countDown();
+            }
+            if (release != null) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return true;
+        }
+    }
+}
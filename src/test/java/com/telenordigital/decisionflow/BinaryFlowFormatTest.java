@@ -0,0 +1,109 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryFlowFormatTest {
+
+    @Test
+    public void testBinaryFlow() throws IOException {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("key", "#root");
+        attributes.put("colour", "'green'");
+        attributes.put("size", "#root.length()");
+        final DecisionFlow<String, String> flow = (DecisionFlow<String, String>)
+                DecisionFlow.<String, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("random", ElementType.RANDOM_SWITCH, null, attributes),
+                        node("a", ElementType.TARGET, "'A'", attributes),
+                        node("b", ElementType.TARGET, "#root"),
+                        arrow("init", "random", null, false),
+                        arrow("random", "a", "50", false),
+                        arrow("random", "b", null, false)));
+        final Path path = Files.createTempFile("flow", ".bin");
+        try {
+            flow.writeBinary(path);
+            final DecisionMachine<String, String> read = DecisionFlow.readBinary(path);
+            for (int i = 0; i < 100; i++) {
+                final Decision<String> expected = flow.getDecision("user" + i);
+                final Decision<String> actual = read.getDecision("user" + i);
+                assertThat(actual.getId(), equalTo(expected.getId()));
+                assertThat(actual.getPayload(), equalTo(expected.getPayload()));
+                assertThat(actual.getAttributes(), equalTo(expected.getAttributes()));
+            }
+
+            final byte[] bytes = Files.readAllBytes(path);
+            ByteBuffer.wrap(bytes).putShort(4, (short) 99);
+            Files.write(path, bytes);
+            DecisionFlow.readBinary(path);
+            fail("Expected exception");
+        } catch (DecisionFlowException e) {
+            assertThat(e.getMessage(), equalTo("Unsupported binary flow version 99."));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testBinaryFlowBigNumbers() throws IOException {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("limit", new BigInteger("123456789012345678901234567890"));
+        attributes.put("rate", new BigDecimal("0.1000000000000000000001"));
+        final DecisionFlow<String, String> flow = (DecisionFlow<String, String>)
+                DecisionFlow.<String, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("a", ElementType.TARGET, "'A'", attributes),
+                        arrow("init", "a", null, false)));
+        final Path path = Files.createTempFile("flow", ".bin");
+        try {
+            flow.writeBinary(path);
+            final DecisionMachine<String, String> read = DecisionFlow.readBinary(path);
+            assertThat(read.getDecision("user").getAttributes(), equalTo(attributes));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRecompileBinaryFlowWithRandomSwitch() throws IOException {
+        final DecisionFlowDescriber describer = describer(
+                node("init", ElementType.INITIAL, null),
+                node("random", ElementType.RANDOM_SWITCH, null),
+                node("switch", ElementType.SWITCH, "25 * 2"),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "random", null, false),
+                arrow("random", "switch", "50", false),
+                arrow("random", "switch", null, false),
+                arrow("switch", "a", "50", false),
+                arrow("switch", "b", null, false));
+        final DecisionFlow<String, String> flow = (DecisionFlow<String, String>)
+                DecisionFlow.<String, String>getInstance(describer);
+        final Path path = Files.createTempFile("flow", ".bin");
+        try {
+            flow.writeBinary(path);
+            final DecisionFlow<String, String> recompiled =
+                    ((DecisionFlow<String, String>) DecisionFlow.<String, String>readBinary(path))
+                            .recompile(describer);
+            for (int i = 0; i < 20; i++) {
+                assertThat(recompiled.getDecision("user" + i).getPayload(), equalTo("A"));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CachingDecisionFlowTest {
+
+    @Test
+    public void testCache() {
+        final Map<String, String> weights = new HashMap<>();
+        weights.put("weight", "100");
+        final DecisionMachine<Animal, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("legs", ElementType.SWITCH, "legs"),
+                node("lookup", ElementType.SWITCH, "lookup()"),
+                node("random", ElementType.RANDOM_SWITCH, null),
+                node("four", ElementType.TARGET, "'four legs'"),
+                node("found", ElementType.TARGET, "'found'"),
+                node("drawn", ElementType.TARGET, "'drawn'"),
+                arrow("init", "legs", null, false),
+                arrow("legs", "four", "4", false),
+                arrow("legs", "lookup", "2", false),
+                arrow("legs", "random", "6", false),
+                arrow("lookup", "found", "'found'", false),
+                arrow("random", "drawn", "100", false)));
+        final CachingDecisionFlow<Animal, String> cached =
+                CachingDecisionFlow.getInstance(flow, Animal::getKind, 100);
+
+        final Animal dog = new Animal("dog", 4);
+        final Decision<String> decision = cached.getDecision(dog);
+        assertThat(decision.getPayload(), equalTo("four legs"));
+        assertThat(cached.getDecision(new Animal("dog", 4)), sameInstance(decision));
+        assertThat(dog.reads, equalTo(1));
+        assertThat(cached.getDecisions(dog).get(0).getPayload(), equalTo("four legs"));
+        assertThat(cached.getDecisions(dog).get(0).getPayload(), equalTo("four legs"));
+        assertThat(cached.getHitCount() + " " + cached.getMissCount(), equalTo("2 2"));
+        assertThat(cached.getSize(), equalTo(2));
+
+        // lookup() is not known to be pure and random switches never are
+        cached.getDecision(new Animal("bird", 2));
+        cached.getDecision(new Animal("bird", 2));
+        cached.getDecision(new Animal("insect", 6));
+        assertThat(cached.getUncacheableCount(), equalTo(3L));
+        assertThat(cached.getDecision(new Animal(null, 4)).getPayload(), equalTo("four legs"));
+        assertThat(cached.getUncacheableCount(), equalTo(4L));
+
+        final CachingDecisionFlow<Animal, String> pureLookup =
+                cached.withPureMethods(Collections.singleton("lookup"));
+        pureLookup.getDecision(new Animal("bird", 2));
+        pureLookup.getDecision(new Animal("bird", 2));
+        assertThat(pureLookup.getHitCount(), equalTo(1L));
+
+        // no decision is cached too
+        final CachingDecisionFlow<Animal, String> expiring =
+                cached.withTimeToLive(1, TimeUnit.NANOSECONDS);
+        assertThat(expiring.getDecision(new Animal("snake", 0)), nullValue());
+        assertThat(expiring.getDecision(new Animal("snake", 0)), nullValue());
+        assertThat(expiring.getHitCount(), equalTo(0L));
+        assertThat(cached.getDecision(new Animal("snake", 0)), nullValue());
+        assertThat(cached.getDecision(new Animal("snake", 0)), nullValue());
+        assertThat(cached.getHitCount(), equalTo(3L));
+    }
+
+    @Test
+    public void testStickyRandomSwitchWithPureKey() {
+        final CachingDecisionFlow<Animal, String> cached = CachingDecisionFlow.getInstance(
+                DecisionFlow.getInstance(FlowResources.describer("sticky-cache.json")),
+                Animal::getKind, 100);
+        final Decision<String> decision = cached.getDecision(new Animal("dog", 4));
+        assertThat(cached.getDecision(new Animal("dog", 4)), sameInstance(decision));
+        cached.getDecision(new Animal("bird", 2));
+        cached.getDecision(new Animal("insect", 6));
+        assertThat(cached.getHitCount(), equalTo(1L));
+        assertThat(cached.getUncacheableCount(), equalTo(2L));
+
+        final CachingDecisionFlow<Animal, String> pureLookup =
+                cached.withPureMethods(Collections.singleton("lookup"));
+        pureLookup.getDecision(new Animal("bird", 2));
+        pureLookup.getDecision(new Animal("bird", 2));
+        assertThat(pureLookup.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testCachedDecisionsCannotBeChanged() {
+        final CachingDecisionFlow<Animal, String> cached = CachingDecisionFlow.getInstance(
+                DecisionFlow.getInstance(FlowResources.describer("sticky-cache.json")),
+                Animal::getKind, 100);
+        final Decision<String> decision = cached.getDecisions(new Animal("dog", 4)).get(0);
+        assertUnmodifiable(() -> decision.getDecisions().clear());
+        assertUnmodifiable(() -> decision.getDecisionPath().clear());
+        assertThat(cached.getDecisions(new Animal("dog", 4)).get(0).getDecisions().size(),
+                equalTo(1));
+    }
+
+    private static void assertUnmodifiable(final Runnable change) {
+        try {
+            change.run();
+            fail("Changed a cached decision.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFrequentEntriesStay() {
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, Long.MAX_VALUE);
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (cache.get(key, 0) == null) {
+                    cache.put(key, "hot", 0);
+                }
+            }
+        }
+        // a scan of keys asked for once, while the hot ones keep being asked for
+        for (int key = 1000; key < 3000; key++) {
+            if (cache.get(key, 0) == null) {
+                cache.put(key, "cold", 0);
+            }
+            assertThat(cache.get(key % 50, 0), notNullValue());
+        }
+        for (int key = 0; key < 50; key++) {
+            assertThat(cache.get(key, 0), notNullValue());
+        }
+        assertThat(cache.size() <= 100, equalTo(true));
+    }
+
+    public static final class Animal {
+        private final String kind;
+        private final int legs;
+        private int reads;
+
+        Animal(final String kind, final int legs) {
+            this.kind = kind;
+            this.legs = legs;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public int getLegs() {
+            reads++;
+            return legs;
+        }
+
+        public String lookup() {
+            return "found";
+        }
+    }
+}
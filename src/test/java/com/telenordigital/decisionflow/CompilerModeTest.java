@@ -0,0 +1,85 @@
+package com.telenordigital.decisionflow;
+
+import org.junit.Test;
+import org.springframework.expression.spel.SpelCompilerMode;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompilerModeTest {
+
+    @Test
+    public void testOtherContextTypeFallsBackToInterpreting() {
+        final DecisionMachine<Object, String> flow = compiledFlow();
+        final Dog dog = new Dog("tom");
+        assertThat(flow.getDecision(dog).getPayload(), equalTo("tom"));
+        assertThat(flow.getDecision(new Dog("rex")).getPayload(), equalTo("other"));
+        assertThat(dog.checks, equalTo(1));
+    }
+
+    @Test
+    public void testExceptionFromContextIsNotEvaluatedTwice() {
+        final DecisionMachine<Object, String> flow = compiledFlow();
+        final Cat cat = new Cat(null);
+        try {
+            flow.getDecision(cat);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("No name"));
+        }
+        assertThat(cat.checks, equalTo(1));
+        assertThat(flow.getDecision(new Cat("tom")).getPayload(), equalTo("tom"));
+    }
+
+    /**
+     * A flow whose switch has been evaluated, and so compiled, with cats.
+     */
+    private static DecisionMachine<Object, String> compiledFlow() {
+        final DecisionMachine<Object, String> flow = DecisionFlow.getInstance(
+                describer("compiled-calls.json"), SpelCompilerMode.IMMEDIATE);
+        for (int i = 0; i < 3; i++) {
+            assertThat(flow.getDecision(new Cat("tom")).getPayload(), equalTo("tom"));
+        }
+        return flow;
+    }
+
+    public static class Cat {
+        private final String name;
+        private int checks;
+
+        Cat(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String check(final String checked) {
+            checks++;
+            if (checked == null) {
+                throw new IllegalStateException("No name");
+            }
+            return checked;
+        }
+    }
+
+    public static class Dog {
+        private final String name;
+        private int checks;
+
+        Dog(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String check(final String checked) {
+            checks++;
+            return checked;
+        }
+    }
+}
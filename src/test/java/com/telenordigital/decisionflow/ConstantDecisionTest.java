@@ -0,0 +1,24 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ConstantDecisionTest {
+
+    @Test
+    public void testConstantDecisionIsShared() {
+        final DecisionMachine<Object, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'"),
+                arrow("init", "a", null, false)));
+        final Decision<String> decision = flow.getDecision(new Object());
+        assertThat(flow.getDecision(new Object()) == decision, equalTo(true));
+        assertThat(decision.getDecisions().size(), equalTo(1));
+        assertThat(decision.getDecisionPath().isEmpty(), equalTo(true));
+    }
+}
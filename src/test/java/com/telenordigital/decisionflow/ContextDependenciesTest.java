@@ -0,0 +1,45 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Map;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ContextDependenciesTest {
+
+    @Test
+    public void testContextDependencies() {
+        final DecisionFlow<Object, Object> flow = (DecisionFlow<Object, Object>)
+                DecisionFlow.getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("age", ElementType.SWITCH, "customer.age >= 18 ? 'adult' : 'minor'"),
+                        node("orders", ElementType.SWITCH,
+                                "orders.?[amount > #root.limits[region]].size() > 0"),
+                        node("adult", ElementType.TARGET, "#root.customer.name"),
+                        node("minor", ElementType.TARGET, "lookup(customer.id).owner"),
+                        arrow("init", "age", null, false),
+                        arrow("age", "orders", "'adult'", false),
+                        arrow("age", "minor", null, false),
+                        arrow("orders", "adult", "true", false),
+                        arrow("orders", "minor", null, false)));
+        final Map<String, ContextDependencies> byNode = flow.getNodeDependencies();
+        assertThat(byNode.keySet().toString(), equalTo("[init, age, orders, adult, minor]"));
+        assertThat(byNode.get("init").toString(), equalTo("properties [], methods []"));
+        assertThat(byNode.get("age").getPropertyPaths().toString(),
+                equalTo("[customer.age]"));
+        assertThat(byNode.get("orders").toString(), equalTo(
+                "properties [limits, orders, orders.amount, region], methods [orders.size()]"));
+        assertThat(byNode.get("adult").getPropertyPaths().toString(),
+                equalTo("[customer.name]"));
+        assertThat(byNode.get("minor").toString(),
+                equalTo("properties [customer.id], methods [lookup()]"));
+        assertThat(flow.getContextDependencies().isPropertiesOnly(), equalTo(false));
+        assertThat(flow.getContextDependencies().getPropertyPaths().toString(), equalTo(
+                "[customer.age, customer.id, customer.name, limits, orders, orders.amount,"
+                        + " region]"));
+    }
+}
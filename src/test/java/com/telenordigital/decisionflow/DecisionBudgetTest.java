@@ -0,0 +1,82 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static com.telenordigital.decisionflow.TestFlows.payloads;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DecisionBudgetTest {
+
+    @Test
+    public void testDecisionBudget() {
+        final DecisionFlow<Object, String> flow = (DecisionFlow<Object, String>)
+                DecisionFlow.<Object, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("switch", ElementType.SWITCH, "T(java.lang.Thread).sleep(20)"),
+                        node("a", ElementType.TARGET, "'A' + ''"),
+                        node("b", ElementType.TARGET, "'B' + ''"),
+                        node("c", ElementType.TARGET, "'C' + ''"),
+                        arrow("init", "switch", null, false),
+                        arrow("switch", "a", null, true),
+                        arrow("switch", "b", null, true),
+                        arrow("switch", "c", null, true)));
+        final DecisionBudget unlimited = DecisionBudget.getInstance();
+        assertThat(payloads(flow.getDecisions(new Object(), unlimited)),
+                equalTo(Arrays.asList("A", "B", "C")));
+        assertThat(flow.getDecision(new Object(), unlimited).getPayload(), equalTo("A"));
+
+        final DecisionBudget fewNodes = unlimited.withMaxNodes(4);
+        assertBudgetExceeded(flow, fewNodes, DecisionBudgetExceededException.Limit.NODES);
+        assertThat(payloads(flow.getDecisions(new Object(), fewNodes.withPartialDecisions())),
+                equalTo(Arrays.asList("A", "B")));
+        assertThat(flow.getDecision(new Object(), unlimited.withMaxNodes(2).withPartialDecisions()),
+                nullValue());
+
+        // the switch and A are within the budget, B goes over it and C is not reached
+        final DecisionBudget fewEvaluations = unlimited.withMaxEvaluations(2);
+        assertBudgetExceeded(
+                flow, fewEvaluations, DecisionBudgetExceededException.Limit.EVALUATIONS);
+        assertThat(payloads(
+                flow.getDecisions(new Object(), fewEvaluations.withPartialDecisions())),
+                equalTo(Arrays.asList("A", "B")));
+
+        final DecisionBudget littleTime = unlimited.withTimeout(5, TimeUnit.MILLISECONDS);
+        assertBudgetExceeded(flow, littleTime, DecisionBudgetExceededException.Limit.TIME);
+        assertThat(flow.getDecisions(new Object(), littleTime.withPartialDecisions()).size(),
+                equalTo(0));
+    }
+
+    @Test
+    public void testLongTimeouts() {
+        final DecisionFlow<Object, String> flow = (DecisionFlow<Object, String>)
+                DecisionFlow.<Object, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("a", ElementType.TARGET, "'A' + ''"),
+                        arrow("init", "a", null, false)));
+        for (final long timeout : new long[] {Long.MAX_VALUE, Long.MAX_VALUE - 1}) {
+            final DecisionBudget budget =
+                    DecisionBudget.getInstance().withTimeout(timeout, TimeUnit.NANOSECONDS);
+            assertThat(flow.getDecision(new Object(), budget).getPayload(), equalTo("A"));
+        }
+    }
+
+    private static void assertBudgetExceeded(
+            final DecisionFlow<Object, String> flow,
+            final DecisionBudget budget,
+            final DecisionBudgetExceededException.Limit limit) {
+        try {
+            flow.getDecisions(new Object(), budget);
+            fail("Budget should be exceeded.");
+        } catch (DecisionBudgetExceededException e) {
+            assertThat(e.getLimit(), equalTo(limit));
+        }
+    }
+}
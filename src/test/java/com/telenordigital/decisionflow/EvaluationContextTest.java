@@ -0,0 +1,73 @@
+package com.telenordigital.decisionflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class EvaluationContextTest {
+
+    private static final DecisionMachine<Animal, String> FLOW =
+            DecisionFlow.getInstance(describer("evaluation-context.json"));
+
+    @Test
+    public void testTypeAndConstructorReferences() {
+        assertThat(FLOW.getDecision(new Animal("spider", 8)).getPayload(),
+                equalTo("spider:8"));
+        assertThat(FLOW.getDecision(new Animal("emu", 2)).getPayload(), equalTo("ume"));
+    }
+
+    @Test
+    public void testRootsDoNotLeakBetweenThreads() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    for (int i = 0; i < 1000; i++) {
+                        final int legs = (thread + i) % 10;
+                        final String name = "animal" + thread + "-" + i;
+                        final String expected = (legs > 2)
+                                ? name + ":" + Math.max(legs, 4)
+                                : new StringBuilder(name).reverse().toString();
+                        if (!expected.equals(
+                                FLOW.getDecision(new Animal(name, legs)).getPayload())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertThat(result.get(), equalTo(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static class Animal {
+        private final String name;
+        private final int legs;
+
+        Animal(final String name, final int legs) {
+            this.name = name;
+            this.legs = legs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLegs() {
+            return legs;
+        }
+    }
+}
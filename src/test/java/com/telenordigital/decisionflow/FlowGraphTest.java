@@ -0,0 +1,55 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class FlowGraphTest {
+
+    private static final DecisionMachine<Integer, String> FLOW =
+            DecisionFlow.getInstance(describer("flow-graph.json"));
+
+    @Test
+    public void testObligatoryArrowsBeforeTheChosenOne() {
+        final List<Decision<String>> decisions = FLOW.getDecisions(20);
+        assertThat(decisions.stream().map(Decision::getPayload).collect(Collectors.toList()),
+                equalTo(Arrays.asList("audit", "big", "bigger")));
+        assertThat(ids(decisions.get(2).getDecisionPath()), equalTo(Arrays.asList(
+                "init", "toAudit", "audit", "toSize", "size", "toBig", "big", "toBigger",
+                "bigger")));
+        assertThat(decisions.get(2).getDecisions().size(), equalTo(3));
+        assertThat(FLOW.getDecision(20).getId(), equalTo("audit"));
+    }
+
+    @Test
+    public void testDefaultArrow() {
+        final List<Decision<String>> decisions = FLOW.getDecisions(5);
+        assertThat(decisions.size(), equalTo(2));
+        assertThat(ids(decisions.get(1).getDecisionPath()), equalTo(Arrays.asList(
+                "init", "toAudit", "audit", "toSize", "size", "toSmall", "small")));
+    }
+
+    @Test
+    public void testPathElementsKeepTheirDescriptions() {
+        final List<ElementDescriptor> path = FLOW.getDecisions(20).get(1).getDecisionPath();
+        final ElementDescriptor toBig = path.get(5);
+        assertThat(toBig.getType(), equalTo(ElementType.ARROW));
+        assertThat(toBig.getExpression(), equalTo("true"));
+        assertThat(toBig.getSourceNodeId(), equalTo("size"));
+        assertThat(toBig.getDestinationNodeId(), equalTo("big"));
+        assertThat(toBig.isDefault(), equalTo(false));
+        assertThat(path.get(1).isObligatory(), equalTo(true));
+        assertThat(path.get(4).getType(), equalTo(ElementType.SWITCH));
+        assertThat(path.get(4).getExpression(), equalTo("#root > 10"));
+    }
+
+    private static List<String> ids(final List<ElementDescriptor> path) {
+        return path.stream().map(ElementDescriptor::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,27 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.describers.JsonDescriber;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Reads the small json flows under src/test/resources/flows.
+ */
+final class FlowResources {
+
+    private FlowResources() {
+    }
+
+    static DecisionFlowDescriber describer(final String name) {
+        try {
+            return JsonDescriber.getInstance(new String(
+                    Files.readAllBytes(Paths.get("src/test/resources/flows", name)),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
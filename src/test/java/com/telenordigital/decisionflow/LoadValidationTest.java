@@ -0,0 +1,160 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LoadValidationTest {
+
+    @Test
+    public void testValidFlow() {
+        final DecisionMachine<Object, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("switch", ElementType.SWITCH, "'b'"),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "switch", null, false),
+                arrow("switch", "a", "'a'", false),
+                arrow("switch", "b", "'b'", false)));
+        assertThat(flow.getDecision(new Object()).getPayload(), equalTo("B"));
+    }
+
+    @Test
+    public void testInvalidRandomWeight() {
+        assertLoadFails("Invalid weight -1 from random switch random.",
+                node("init", ElementType.INITIAL, null),
+                node("random", ElementType.RANDOM_SWITCH, null),
+                node("a", ElementType.TARGET, "'A'"),
+                arrow("init", "random", null, false),
+                arrow("random", "a", "-1", false));
+    }
+
+    @Test
+    public void testLoop() {
+        assertLoadFails("Loops detected in the decision flow (switch)",
+                node("init", ElementType.INITIAL, null),
+                node("switch", ElementType.SWITCH, "true"),
+                node("a", ElementType.TARGET, "'A'"),
+                arrow("init", "switch", null, false),
+                arrow("switch", "a", null, false),
+                arrow("a", "switch", null, false));
+    }
+
+    @Test
+    public void testLoopOutsideOfReachablePart() {
+        assertLoadFails("Loops detected in the decision flow (b)",
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "a", null, false),
+                arrow("b", "b", null, false));
+    }
+
+    @Test
+    public void testMultipleDefaults() {
+        assertLoadFails("Multiple default paths detected from node switch.",
+                node("init", ElementType.INITIAL, null),
+                node("switch", ElementType.SWITCH, "true"),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "switch", null, false),
+                arrow("switch", "a", null, false),
+                arrow("switch", "b", null, false));
+    }
+
+    @Test
+    public void testUnreachableNode() {
+        assertLoadFails("Unreachable node found (b).",
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                node("c", ElementType.TARGET, "'C'"),
+                arrow("init", "a", null, false),
+                arrow("b", "c", null, false));
+    }
+
+    @Test
+    public void testUnreachableNodeWithoutArrows() {
+        assertLoadFails("Unreachable node found (b).",
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "a", null, false));
+    }
+
+    @Test
+    public void testLongChain() {
+        final List<ElementDescriptor> elements = chain(100000);
+        assertThat(DecisionFlow.getInstance(describer(
+                elements.toArray(new ElementDescriptor[0]))), notNullValue());
+        elements.add(arrow("n99999", "n50000", null, false));
+        assertLoadFails("Loops detected in the decision flow (n50000)",
+                elements.toArray(new ElementDescriptor[0]));
+    }
+
+    private static List<ElementDescriptor> chain(final int length) {
+        final List<ElementDescriptor> elements = new ArrayList<>();
+        elements.add(node("init", ElementType.INITIAL, null));
+        elements.add(arrow("init", "n0", null, false));
+        for (int i = 0; i < length; i++) {
+            elements.add(node("n" + i, ElementType.SWITCH, "true"));
+            if (i > 0) {
+                elements.add(arrow("n" + (i - 1), "n" + i, null, false));
+            }
+        }
+        return elements;
+    }
+
+    @Test
+    public void testObligatoryBranchesJoining() {
+        final DecisionMachine<Object, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("switch", ElementType.SWITCH, "true"),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                node("c", ElementType.TARGET, "'C'"),
+                arrow("init", "switch", null, false),
+                arrow("switch", "a", null, true),
+                arrow("switch", "b", null, true),
+                arrow("a", "c", null, false),
+                arrow("b", "c", null, false)));
+        final List<Decision<String>> decisions = flow.getDecisions(new Object());
+        assertThat(decisions.size(), equalTo(4));
+    }
+
+    @Test
+    public void testVariableAssignment() {
+        assertLoadFails("Expression #seen = #root assigns the variable #seen, variables cannot "
+                        + "be set by flows.",
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "a", "#seen = #root", false),
+                arrow("init", "b", null, false));
+        assertLoadFails("Expression {1, 2}.?[(#last = #this) > 1] assigns the variable #last, "
+                        + "variables cannot be set by flows.",
+                node("init", ElementType.INITIAL, null),
+                node("a", ElementType.TARGET, "'A'",
+                        Collections.singletonMap("last", "{1, 2}.?[(#last = #this) > 1]")),
+                arrow("init", "a", null, false));
+    }
+
+    private static void assertLoadFails(final String message, final ElementDescriptor... elements) {
+        try {
+            DecisionFlow.getInstance(describer(elements));
+            fail("Flow should not load.");
+        } catch (DecisionFlowException e) {
+            assertThat(e.getMessage(), equalTo(message));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MemoizationTest {
+
+    @Test
+    public void testMemoization() {
+        final DecisionFlow<Animal, Object> flow = (DecisionFlow<Animal, Object>)
+                DecisionFlow.<Animal, Object>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("legs", ElementType.SWITCH, "legs"),
+                        node("lookup", ElementType.SWITCH, "lookup()"),
+                        node("target", ElementType.TARGET, " legs "),
+                        node("other", ElementType.TARGET, "'other'"),
+                        arrow("init", "legs", null, false),
+                        arrow("legs", "lookup", "4", false),
+                        arrow("legs", "other", null, false),
+                        arrow("lookup", "target", "lookup()", false)));
+        final Animal animal = new Animal();
+        assertThat(flow.getDecision(animal).getPayload(), equalTo(4));
+        assertThat(animal.legReads + " " + animal.lookups, equalTo("2 2"));
+
+        final Animal memoized = new Animal();
+        assertThat(flow.withMemoization(new HashSet<>()).getDecisions(memoized).size(),
+                equalTo(1));
+        assertThat(memoized.legReads + " " + memoized.lookups, equalTo("1 2"));
+
+        final DecisionFlow<Animal, Object> pureLookup =
+                flow.withMemoization(new HashSet<>(Arrays.asList("lookup")));
+        final Animal pure = new Animal();
+        assertThat(pureLookup.getDecision(pure).getPayload(), equalTo(4));
+        assertThat(pure.legReads + " " + pure.lookups, equalTo("1 1"));
+        // each call starts afresh
+        assertThat(pureLookup.getDecisions(pure).get(0).getPayload(), equalTo(4));
+        assertThat(pure.legReads + " " + pure.lookups, equalTo("2 2"));
+    }
+
+    @Test
+    public void testMemoizationInBatches() {
+        final DecisionFlow<Animal, Object> flow = ((DecisionFlow<Animal, Object>)
+                DecisionFlow.<Animal, Object>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("legs", ElementType.SWITCH, "legs"),
+                        node("target", ElementType.TARGET, "legs"),
+                        node("other", ElementType.TARGET, "'other'"),
+                        arrow("init", "legs", null, false),
+                        arrow("legs", "target", "legs", false),
+                        arrow("legs", "other", null, false))))
+                .withMemoization(new HashSet<>());
+        final List<Animal> animals = Arrays.asList(new Animal(), new Animal());
+        assertThat(flow.getDecisionBatch(animals).get(0).getPayload(), equalTo(4));
+        final List<List<Decision<Object>>> decisions = flow.getDecisionsBatch(animals);
+        assertThat(decisions.get(1).get(0).getPayload(), equalTo(4));
+        for (final Animal animal : animals) {
+            assertThat(animal.legReads, equalTo(2));
+        }
+    }
+
+    public static final class Animal {
+        private int legReads;
+        private int lookups;
+
+        public int getLegs() {
+            legReads++;
+            return 4;
+        }
+
+        public String lookup() {
+            lookups++;
+            return "found";
+        }
+    }
+}
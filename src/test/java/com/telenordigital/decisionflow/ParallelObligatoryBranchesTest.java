@@ -0,0 +1,76 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.ids;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static com.telenordigital.decisionflow.TestFlows.payloads;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ParallelObligatoryBranchesTest {
+
+    @Test
+    public void testParallelObligatoryBranches() {
+        final DecisionFlow<Meeting, String> flow = (DecisionFlow<Meeting, String>)
+                DecisionFlow.<Meeting, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("switch", ElementType.SWITCH, "true"),
+                        node("a", ElementType.TARGET, "meet('A')"),
+                        node("b", ElementType.TARGET, "meet('B')"),
+                        node("c", ElementType.TARGET, "meet('C')"),
+                        node("d", ElementType.TARGET, "'D'"),
+                        node("e", ElementType.TARGET, "'E'"),
+                        node("f", ElementType.TARGET, "'F'"),
+                        arrow("init", "switch", null, false),
+                        arrow("switch", "a", null, true),
+                        arrow("switch", "b", null, true),
+                        arrow("switch", "c", null, true),
+                        arrow("a", "d", null, true),
+                        arrow("a", "e", null, true),
+                        arrow("b", "f", null, false)));
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final TraceMode traceMode : Arrays.asList(TraceMode.FULL, TraceMode.COMPACT)) {
+                final List<Decision<String>> expected =
+                        flow.getDecisions(new Meeting(null), traceMode);
+                // a, b and c only get past the barrier together
+                final List<Decision<String>> decisions = flow.withBranchExecutor(pool)
+                        .getDecisions(new Meeting(new CyclicBarrier(3)), traceMode);
+                assertThat(payloads(decisions),
+                        equalTo(Arrays.asList("A", "D", "E", "B", "F", "C")));
+                assertThat(payloads(decisions), equalTo(payloads(expected)));
+                for (int i = 0; i < decisions.size(); i++) {
+                    assertThat(ids(decisions.get(i).getDecisionPath()),
+                            equalTo(ids(expected.get(i).getDecisionPath())));
+                    assertThat(payloads(decisions.get(i).getDecisions()),
+                            equalTo(payloads(expected.get(i).getDecisions())));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static final class Meeting {
+        private final CyclicBarrier barrier;
+
+        Meeting(final CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        public String meet(final String payload) throws Exception {
+            if (barrier != null) {
+                barrier.await(10, TimeUnit.SECONDS);
+            }
+            return payload;
+        }
+    }
+}
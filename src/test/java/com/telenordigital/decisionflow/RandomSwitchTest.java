@@ -0,0 +1,33 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RandomSwitchTest {
+
+    @Test
+    public void testFractionalRandomWeights() {
+        final DecisionMachine<Object, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("random", ElementType.RANDOM_SWITCH, null),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                node("c", ElementType.TARGET, "'C'"),
+                arrow("init", "random", null, false),
+                arrow("random", "a", "0.5", false),
+                arrow("random", "b", "0", false),
+                arrow("random", "c", null, false)));
+        int aCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            final String payload = flow.getDecision(new Object()).getPayload();
+            assertThat(payload.equals("B"), equalTo(false));
+            aCount += payload.equals("A") ? 1 : 0;
+        }
+        assertThat(aCount > 0 && aCount < 200, equalTo(true));
+    }
+}
@@ -0,0 +1,86 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RecompileTest {
+
+    @Test
+    public void testRecompile() {
+        final DecisionFlow<String, String> flow = (DecisionFlow<String, String>)
+                DecisionFlow.<String, String>getInstance(describer(
+                        node("init", ElementType.INITIAL, null),
+                        node("switch", ElementType.SWITCH, "#root.length()"),
+                        node("a", ElementType.TARGET, "'A'"),
+                        node("b", ElementType.TARGET, "#root"),
+                        arrow("init", "switch", null, false),
+                        arrow("switch", "a", "1", false),
+                        arrow("switch", "b", null, false)),
+                        SpelCompilerMode.MIXED);
+        final DecisionFlow<String, String> recompiled = flow.recompile(describer(
+                node("init", ElementType.INITIAL, null),
+                node("switch", ElementType.SWITCH, "#root.length()"),
+                node("a", ElementType.TARGET, "'A2'"),
+                node("b", ElementType.TARGET, "#root"),
+                node("c", ElementType.TARGET, "'C'"),
+                arrow("init", "switch", null, false),
+                arrow("switch", "a", "1", false),
+                arrow("switch", "c", "2", false),
+                arrow("switch", "b", null, false)));
+        assertThat(flow.getDecision("x").getPayload(), equalTo("A"));
+        assertThat(flow.getDecision("xy").getPayload(), equalTo("xy"));
+        assertThat(recompiled.getDecision("x").getPayload(), equalTo("A2"));
+        assertThat(recompiled.getDecision("xy").getPayload(), equalTo("C"));
+        assertThat(recompiled.getDecision("xyz").getPayload(), equalTo("xyz"));
+    }
+
+    @Test
+    public void testOnlyParsedExpressionsAreReused() throws IOException {
+        final DecisionFlowDescriber describer = describer(
+                node("init", ElementType.INITIAL, null),
+                node("random", ElementType.RANDOM_SWITCH, null),
+                node("switch", ElementType.SWITCH, "#root.length()"),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "#root"),
+                arrow("init", "random", null, false),
+                arrow("random", "switch", "50", false),
+                arrow("random", "b", null, false),
+                arrow("switch", "a", "1", false),
+                arrow("switch", "b", null, false));
+        final ExpressionParser parser = new SpelExpressionParser();
+        final EvaluationContext context = new StandardEvaluationContext();
+        final FlowGraph loaded = new FlowGraph(describer, parser, context, null);
+        assertThat(collectExpressions(loaded), equalTo("[#root, #root.length(), 'A', 0, 1]"));
+
+        final Path path = Files.createTempFile("flow", ".bin");
+        try {
+            BinaryFlowFormat.write(loaded, path);
+            assertThat(collectExpressions(BinaryFlowFormat.read(path, parser, context)),
+                    equalTo("[#root, #root.length()]"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static String collectExpressions(final FlowGraph graph) {
+        final Map<String, ExpressionHolder> expressions = new TreeMap<>();
+        graph.collectExpressions(expressions);
+        expressions.forEach((text, holder) -> assertThat(holder.getParsedText(), equalTo(text)));
+        return expressions.keySet().toString();
+    }
+}
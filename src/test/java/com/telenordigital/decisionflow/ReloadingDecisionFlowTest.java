@@ -0,0 +1,100 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import com.telenordigital.decisionflow.describers.JsonDescriber;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ReloadingDecisionFlowTest {
+
+    @Test
+    public void testReload() throws IOException, InterruptedException {
+        final Path dir = Files.createTempDirectory("flows");
+        final Path file = dir.resolve("flow.json");
+        write(file, "'A'");
+        try (ReloadingDecisionFlow<Object, String> flow = ReloadingDecisionFlow.getInstance(
+                file, p -> DecisionFlow.getInstance(JsonDescriber.getInstance(p)))) {
+            assertThat(flow.getDecision(new Object()).getPayload(), equalTo("A"));
+
+            final DecisionMachine<Object, String> old = flow.getCurrent();
+            write(file, "'B'");
+            waitForPayload(flow, "B");
+            assertThat(old.getDecision(new Object()).getPayload(), equalTo("A"));
+            assertThat(flow.getLastReloadFailure(), nullValue());
+
+            Files.write(file, "[{".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 100 && flow.getLastReloadFailure() == null; i++) {
+                Thread.sleep(100);
+            }
+            assertThat(flow.getLastReloadFailure(), notNullValue());
+            assertThat(flow.getDecision(new Object()).getPayload(), equalTo("B"));
+
+            write(file, "'C'");
+            flow.reload();
+            assertThat(flow.getDecision(new Object()).getPayload(), equalTo("C"));
+            assertThat(flow.getLastReloadFailure(), nullValue());
+        } finally {
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testPapyrusLabelsAreWatched() throws IOException, InterruptedException {
+        final Path dir = Files.createTempDirectory("flows");
+        final Path file = dir.resolve("flow.uml");
+        final Path labels = dir.resolve("flow_en_US.properties");
+        write(file, "'A'");
+        Files.write(labels, "label=A".getBytes(StandardCharsets.UTF_8));
+        final AtomicInteger loads = new AtomicInteger();
+        try (ReloadingDecisionFlow<Object, String> flow = ReloadingDecisionFlow.getInstance(
+                file, p -> {
+                    loads.incrementAndGet();
+                    return DecisionFlow.getInstance(JsonDescriber.getInstance(p));
+                })) {
+            Files.write(labels, "label=B".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 100 && loads.get() == 1; i++) {
+                Thread.sleep(100);
+            }
+            assertThat(loads.get() > 1, equalTo(true));
+        } finally {
+            Files.delete(labels);
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static void write(final Path file, final String payload) throws IOException {
+        final String json = ((JsonDescriber) JsonDescriber.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("target", ElementType.TARGET, payload),
+                arrow("init", "target", null, false)))).getJson();
+        Files.write(file.resolveSibling("flow.tmp"), json.getBytes(StandardCharsets.UTF_8));
+        Files.move(file.resolveSibling("flow.tmp"), file,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void waitForPayload(
+            final DecisionMachine<Object, String> flow,
+            final String payload) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (payload.equals(flow.getDecision(new Object()).getPayload())) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        assertThat(flow.getDecision(new Object()).getPayload(), equalTo(payload));
+    }
+}
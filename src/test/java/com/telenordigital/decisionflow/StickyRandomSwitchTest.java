@@ -0,0 +1,40 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.TestFlows.arrow;
+import static com.telenordigital.decisionflow.TestFlows.describer;
+import static com.telenordigital.decisionflow.TestFlows.node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class StickyRandomSwitchTest {
+
+    @Test
+    public void testStickyRandomSwitch() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("key", "#root");
+        attributes.put("salt", "experiment-1");
+        final DecisionMachine<String, String> flow = DecisionFlow.getInstance(describer(
+                node("init", ElementType.INITIAL, null),
+                node("random", ElementType.RANDOM_SWITCH, null, attributes),
+                node("a", ElementType.TARGET, "'A'"),
+                node("b", ElementType.TARGET, "'B'"),
+                arrow("init", "random", null, false),
+                arrow("random", "a", "50", false),
+                arrow("random", "b", null, false)));
+        final Set<String> payloads = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            final String payload = flow.getDecision("user" + i).getPayload();
+            for (int j = 0; j < 10; j++) {
+                assertThat(flow.getDecision("user" + i).getPayload(), equalTo(payload));
+            }
+            payloads.add(payload);
+        }
+        assertThat(payloads.size(), equalTo(2));
+    }
+}
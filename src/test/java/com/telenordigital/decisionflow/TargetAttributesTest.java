@@ -0,0 +1,68 @@
+package com.telenordigital.decisionflow;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TargetAttributesTest {
+
+    private static final DecisionMachine<Animal, String> FLOW =
+            DecisionFlow.getInstance(describer("target-attributes.json"));
+
+    @Test
+    public void testClassification() {
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("literal", "green");
+        expected.put("number", 4);
+        expected.put("expression", "ZEBRA");
+        expected.put("unparsable", "not (valid");
+        expected.put("empty", "");
+        expected.put("failing", "noSuchProperty");
+        expected.put("throwing", "brokenLookup()");
+        assertThat(FLOW.getDecision(new Animal("zebra")).getAttributes(), equalTo(expected));
+        assertThat(FLOW.getDecision(new Animal("okapi")).getAttributes().get("expression"),
+                equalTo("OKAPI"));
+    }
+
+    @Test
+    public void testConstantAttributesAreShared() {
+        final Map<String, ?> attributes = FLOW.getDecision(new Animal("emu")).getAttributes();
+        assertThat(attributes.get("literal"), equalTo("green"));
+        assertThat(attributes.get("unparsable"), equalTo("not (valid"));
+        assertThat(FLOW.getDecision(new Animal("gnu")).getAttributes() == attributes,
+                equalTo(true));
+    }
+
+    @Test
+    public void testFailingAttributeIsNotEvaluatedAgain() {
+        final DecisionMachine<Animal, String> flow =
+                DecisionFlow.getInstance(describer("target-attributes.json"));
+        final Animal zebra = new Animal("zebra");
+        for (int i = 0; i < 3; i++) {
+            assertThat(flow.getDecision(zebra).getAttributes().get("throwing"),
+                    equalTo("brokenLookup()"));
+        }
+        assertThat(zebra.failures, equalTo(1));
+    }
+
+    public static class Animal {
+        private final String name;
+        private int failures;
+
+        Animal(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String brokenLookup() {
+            failures++;
+            throw new IllegalStateException("Lookup failed.");
+        }
+    }
+}
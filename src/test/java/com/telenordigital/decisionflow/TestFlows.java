@@ -0,0 +1,125 @@
+package com.telenordigital.decisionflow;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Builds small flows element by element for the tests.
+ */
+final class TestFlows {
+
+    private TestFlows() {
+    }
+
+    static DecisionFlowDescriber describer(final ElementDescriptor... elements) {
+        return callback -> Arrays.stream(elements).forEach(callback::newElement);
+    }
+
+    static ElementDescriptor node(
+            final String id,
+            final ElementType type,
+            final String expression) {
+        return node(id, type, expression, null);
+    }
+
+    static ElementDescriptor node(
+            final String id,
+            final ElementType type,
+            final String expression,
+            final Map<String, ?> attributes) {
+        return new Element(id, type, expression, attributes, null, null, false);
+    }
+
+    static ElementDescriptor arrow(
+            final String source,
+            final String destination,
+            final String expression,
+            final boolean obligatory) {
+        return new Element(source + "->" + destination,
+                ElementType.ARROW, expression, null, source, destination, obligatory);
+    }
+
+    private static final class Element implements ElementDescriptor {
+        private final String id;
+        private final ElementType type;
+        private final String expression;
+        private final Map<String, ?> attributes;
+        private final String sourceNodeId;
+        private final String destinationNodeId;
+        private final boolean obligatory;
+
+        Element(
+                final String id,
+                final ElementType type,
+                final String expression,
+                final Map<String, ?> attributes,
+                final String sourceNodeId,
+                final String destinationNodeId,
+                final boolean obligatory) {
+            this.id = id;
+            this.type = type;
+            this.expression = expression;
+            this.attributes = attributes;
+            this.sourceNodeId = sourceNodeId;
+            this.destinationNodeId = destinationNodeId;
+            this.obligatory = obligatory;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return id;
+        }
+
+        @Override
+        public ElementType getType() {
+            return type;
+        }
+
+        @Override
+        public Map<String, ?> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public String getExpression() {
+            return expression;
+        }
+
+        @Override
+        public String getSourceNodeId() {
+            return sourceNodeId;
+        }
+
+        @Override
+        public String getDestinationNodeId() {
+            return destinationNodeId;
+        }
+
+        @Override
+        public boolean isDefault() {
+            return !obligatory && (expression == null || expression.isEmpty());
+        }
+
+        @Override
+        public boolean isObligatory() {
+            return obligatory;
+        }
+    }
+
+    static <P> List<P> payloads(final List<Decision<P>> decisions) {
+        return decisions.stream().map(Decision::getPayload).collect(Collectors.toList());
+    }
+
+    static List<String> ids(final List<ElementDescriptor> path) {
+        return path.stream().map(ElementDescriptor::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,53 @@
+package com.telenordigital.decisionflow;
+
+import java.util.List;
+import org.junit.Test;
+import org.springframework.expression.spel.SpelCompilerMode;
+import static com.telenordigital.decisionflow.FlowResources.describer;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TraceModeTest {
+
+    private static final DecisionFlow<Integer, String> FLOW = (DecisionFlow<Integer, String>)
+            DecisionFlow.<Integer, String>getInstance(describer("flow-graph.json"));
+
+    @Test
+    public void testCompactResolvesToTheFullPath() {
+        final List<Decision<String>> full = FLOW.getDecisions(20, TraceMode.FULL);
+        final List<Decision<String>> compact = FLOW.getDecisions(20, TraceMode.COMPACT);
+        final int[] pathLengths = {3, 7, 9};
+        assertThat(compact.size(), equalTo(pathLengths.length));
+        for (int i = 0; i < pathLengths.length; i++) {
+            assertThat(compact.get(i).getDecisionPath(), equalTo(full.get(i).getDecisionPath()));
+            assertThat(compact.get(i).getDecisionPath().size(), equalTo(pathLengths[i]));
+        }
+    }
+
+    @Test
+    public void testOffRecordsNothing() {
+        final List<Decision<String>> off = FLOW.getDecisions(20, TraceMode.OFF);
+        assertThat(off.size(), equalTo(3));
+        for (final Decision<String> decision : off) {
+            assertThat(decision.getDecisionPath().isEmpty(), equalTo(true));
+        }
+    }
+
+    @Test
+    public void testSingleDecision() {
+        assertThat(FLOW.getDecision(5).getDecisionPath().isEmpty(), equalTo(true));
+        assertThat(FLOW.getDecision(5, TraceMode.COMPACT).getDecisionPath(),
+                equalTo(FLOW.getDecisions(5, TraceMode.FULL).get(0).getDecisionPath()));
+    }
+
+    @Test
+    public void testFlowTraceMode() {
+        final DecisionMachine<Integer, String> compact = DecisionFlow.getInstance(
+                describer("flow-graph.json"), SpelCompilerMode.OFF, TraceMode.COMPACT);
+        final DecisionMachine<Integer, String> off = DecisionFlow.getInstance(
+                describer("flow-graph.json"), SpelCompilerMode.OFF, TraceMode.OFF);
+        assertThat(compact.getDecisions(5).get(1).getDecisionPath().toString(),
+                equalTo(FLOW.getDecisions(5).get(1).getDecisionPath().toString()));
+        assertThat(off.getDecisions(5).get(1).getDecisionPath().isEmpty(), equalTo(true));
+    }
+}
@@ -2,16 +2,30 @@ package com.telenordigital.decisionflow;
 
 import com.telenordigital.decisionflow.describers.JsonDescriber;
 import com.telenordigital.decisionflow.describers.Papyrus;
+import com.telenordigital.decisionflow.describers.StreamingPapyrus;
+import com.telenordigital.decisionflow.describers.StreamingVisualParadigm;
 import com.telenordigital.decisionflow.describers.VisualParadigm;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
+import org.springframework.expression.spel.SpelCompilerMode;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -30,7 +44,15 @@ public class ZooTest {
                 ZOO_PAPYRUS_FLOW,
                 ZOO_PAPYRUS_JSON_FLOW,
                 ZOO_VISUAL_PARADIGM_FLOW,
-                ZOO_VISUAL_PARADIGM_JSON_FLOW
+                ZOO_VISUAL_PARADIGM_JSON_FLOW,
+                ZOO_PAPYRUS_COMPILED_FLOW,
+                ZOO_VISUAL_PARADIGM_COMPILED_FLOW,
+                ZOO_PAPYRUS_STREAMING_FLOW,
+                ZOO_VISUAL_PARADIGM_STREAMING_FLOW,
+                ZOO_PAPYRUS_BINARY_FLOW,
+                ZOO_VISUAL_PARADIGM_BINARY_FLOW,
+                ZOO_PAPYRUS_JSON_READER_FLOW,
+                ZOO_VISUAL_PARADIGM_JSON_FILE_FLOW
                 );
     }
 
@@ -58,6 +80,73 @@ public class ZooTest {
     private static DecisionMachine<AnimalDescription, Animal> ZOO_VISUAL_PARADIGM_JSON_FLOW =
             DecisionFlow.getInstance(ZOO_VISUAL_PARADIGM_JSON_DESCRIBER);
 
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_PAPYRUS_COMPILED_FLOW =
+            DecisionFlow.getInstance(ZOO_PAPYRUS_DESCRIBER, SpelCompilerMode.IMMEDIATE);
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_VISUAL_PARADIGM_COMPILED_FLOW =
+            DecisionFlow.getInstance(ZOO_VISUAL_PARADIGM_DESCRIBER, SpelCompilerMode.MIXED);
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_PAPYRUS_STREAMING_FLOW =
+            DecisionFlow.getInstance(StreamingPapyrus.getInstance(
+                    Paths.get("src/test/resources/papyrus/workspace/zoo/zoo.uml")));
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_VISUAL_PARADIGM_STREAMING_FLOW =
+            DecisionFlow.getInstance(StreamingVisualParadigm.getInstance(
+                    open("src/test/resources/visualparadigm/zoo.xmi")));
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_PAPYRUS_BINARY_FLOW =
+            throughBinary(ZOO_PAPYRUS_FLOW);
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_VISUAL_PARADIGM_BINARY_FLOW =
+            throughBinary(ZOO_VISUAL_PARADIGM_COMPILED_FLOW);
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_PAPYRUS_JSON_READER_FLOW =
+            DecisionFlow.getInstance(JsonDescriber.getInstance(new StringReader(
+                    ((JsonDescriber) ZOO_PAPYRUS_JSON_DESCRIBER).getJson())));
+
+    private static DecisionMachine<AnimalDescription, Animal> ZOO_VISUAL_PARADIGM_JSON_FILE_FLOW =
+            throughJsonFile(ZOO_VISUAL_PARADIGM_DESCRIBER);
+
+    private static DecisionMachine<AnimalDescription, Animal> throughJsonFile(
+            final DecisionFlowDescriber describer) {
+        try {
+            final Path path = Files.createTempFile("zoo", ".json");
+            try {
+                try (OutputStream out = Files.newOutputStream(path)) {
+                    ((JsonDescriber) JsonDescriber.getInstance(describer)).writeJson(out);
+                }
+                return DecisionFlow.getInstance(JsonDescriber.getInstance(path));
+            } finally {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static DecisionMachine<AnimalDescription, Animal> throughBinary(
+            final DecisionMachine<AnimalDescription, Animal> flow) {
+        try {
+            final Path path = Files.createTempFile("zoo", ".bin");
+            try {
+                ((DecisionFlow<AnimalDescription, Animal>) flow).writeBinary(path);
+                return DecisionFlow.readBinary(path, SpelCompilerMode.MIXED, TraceMode.FULL);
+            } finally {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static InputStream open(final String path) {
+        try {
+            return Files.newInputStream(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     enum Environment {WATER, LAND}
     enum AnimalClass {MAMMAL, BIRD, REPTILE, OTHER}
     enum AnimalOrder {PRIMATE, RODENT, OTHER}
@@ -308,6 +397,27 @@ public class ZooTest {
                 equalTo(true));
     }
 
+    @Test
+    public void testTraceModes() {
+        AnimalDescription elephantTigerAndBat =
+                new AnimalDescription(
+                        Environment.LAND, AnimalClass.MAMMAL, AnimalOrder.OTHER,
+                        50000,
+                        false, false, false, false, false, false);
+        List<Decision<Animal>> full = theFlow.getDecisions(elephantTigerAndBat, TraceMode.FULL);
+        List<Decision<Animal>> compact =
+                theFlow.getDecisions(elephantTigerAndBat, TraceMode.COMPACT);
+        List<Decision<Animal>> off = theFlow.getDecisions(elephantTigerAndBat, TraceMode.OFF);
+        assertThat(compact.size(), equalTo(full.size()));
+        assertThat(off.size(), equalTo(full.size()));
+        for (int i = 0; i < full.size(); i++) {
+            assertThat(compact.get(i).getDecisionPath(), equalTo(full.get(i).getDecisionPath()));
+            assertThat(off.get(i).getDecisionPath().isEmpty(), equalTo(true));
+        }
+        assertThat(theFlow.getDecision(elephantTigerAndBat, TraceMode.COMPACT).getDecisionPath(),
+                equalTo(full.get(0).getDecisionPath()));
+    }
+
     @Test
     public void testOstrich() {
         AnimalDescription ostrich =
@@ -369,6 +479,97 @@ public class ZooTest {
                 equalTo(true));
     }
 
+    @Test
+    public void testBatch() {
+        final List<AnimalDescription> descriptions = deterministicDescriptions();
+        final List<Decision<Animal>> decisions = theFlow.getDecisionBatch(descriptions);
+        final List<List<Decision<Animal>>> allDecisions = theFlow.getDecisionsBatch(descriptions);
+        assertThat(decisions.size(), equalTo(descriptions.size()));
+        assertThat(allDecisions.size(), equalTo(descriptions.size()));
+        for (int i = 0; i < descriptions.size(); i++) {
+            assertThat(describe(decisions.get(i)),
+                    equalTo(describe(theFlow.getDecision(descriptions.get(i)))));
+            assertThat(describeAll(allDecisions.get(i)),
+                    equalTo(describeAll(theFlow.getDecisions(descriptions.get(i)))));
+        }
+    }
+
+    @Test
+    public void testMemoization() {
+        final DecisionFlow<AnimalDescription, Animal> memoized =
+                theFlow.withMemoization(Collections.emptySet());
+        for (final AnimalDescription description : deterministicDescriptions()) {
+            assertThat(describe(memoized.getDecision(description)),
+                    equalTo(describe(theFlow.getDecision(description))));
+            assertThat(describeAll(memoized.getDecisions(description)),
+                    equalTo(describeAll(theFlow.getDecisions(description))));
+        }
+    }
+
+    @Test
+    public void testParallelBatch() {
+        final List<AnimalDescription> descriptions = deterministicDescriptions();
+        final List<String> expected = theFlow.getDecisionBatch(descriptions).stream()
+                .map(ZooTest::describe).collect(Collectors.toList());
+        final List<List<String>> allExpected = theFlow.getDecisionsBatch(descriptions).stream()
+                .map(ZooTest::describeAll).collect(Collectors.toList());
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(theFlow.getDecisionBatch(descriptions, pool).stream()
+                    .map(ZooTest::describe).collect(Collectors.toList()), equalTo(expected));
+            assertThat(theFlow.getDecisionsBatch(descriptions, pool).stream()
+                    .map(ZooTest::describeAll).collect(Collectors.toList()), equalTo(allExpected));
+            final DecisionFlow<AnimalDescription, Animal> branching =
+                    theFlow.withBranchExecutor(pool);
+            for (int i = 0; i < descriptions.size(); i++) {
+                assertThat(describeAll(branching.getDecisions(descriptions.get(i))),
+                        equalTo(allExpected.get(i)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(theFlow.getDecisionStream(descriptions.parallelStream())
+                .map(ZooTest::describe).collect(Collectors.toList()), equalTo(expected));
+        assertThat(theFlow.getDecisionsStream(descriptions.parallelStream())
+                .map(ZooTest::describeAll).collect(Collectors.toList()),
+                equalTo(allExpected));
+    }
+
+    private static List<AnimalDescription> deterministicDescriptions() {
+        final List<AnimalDescription> descriptions = new ArrayList<>();
+        for (final Environment environment : Environment.values()) {
+            for (final AnimalClass animalClass : AnimalClass.values()) {
+                if (animalClass == AnimalClass.REPTILE) {
+                    // reptiles are picked at random
+                    continue;
+                }
+                for (final AnimalOrder animalOrder : AnimalOrder.values()) {
+                    for (final int weight : new int[] {0, 50, 200, 50000}) {
+                        for (int abilities = 0; abilities < 64; abilities += 7) {
+                            descriptions.add(new AnimalDescription(
+                                    environment, animalClass, animalOrder, weight,
+                                    (abilities & 1) != 0, (abilities & 2) != 0,
+                                    (abilities & 4) != 0, (abilities & 8) != 0,
+                                    (abilities & 16) != 0, (abilities & 32) != 0));
+                        }
+                    }
+                }
+            }
+        }
+        return descriptions;
+    }
+
+    private static List<String> describeAll(final List<Decision<Animal>> decisions) {
+        return decisions.stream().map(ZooTest::describe).collect(Collectors.toList());
+    }
+
+    private static String describe(final Decision<Animal> decision) {
+        return (decision == null)
+                ? null
+                : decision.getPayload().getAnimalStrain() + " " + decision.getAttributes()
+                        + " " + decision.getDecisionPath();
+    }
+
     @Test
     public void testRandom() {
         AnimalDescription reptile =
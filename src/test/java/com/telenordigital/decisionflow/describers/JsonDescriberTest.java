@@ -0,0 +1,56 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber;
+import com.telenordigital.decisionflow.DecisionFlowException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JsonDescriberTest {
+
+    private static final String JSON = "[{\"id\":\"init\",\"type\":\"INITIAL\"},"
+            + "{\"id\":\"a\",\"type\":\"TARGET\",\"expression\":\"'A'\"}]";
+
+    @Test
+    public void testElements() {
+        assertThat(ids(JsonDescriber.getInstance(JSON)), equalTo("[init, a]"));
+        assertThat(ids(JsonDescriber.getInstance(new StringReader(JSON))),
+                equalTo("[init, a]"));
+    }
+
+    @Test
+    public void testCopy() {
+        final DecisionFlowDescriber copy =
+                JsonDescriber.getInstance(JsonDescriber.getInstance(JSON));
+        assertThat(ids(copy), equalTo("[init, a]"));
+        assertThat(((JsonDescriber) copy).getJson(),
+                equalTo(((JsonDescriber) JsonDescriber.getInstance(JSON)).getJson()));
+    }
+
+    @Test
+    public void testTrailingContent() {
+        assertTrailingContentFails(() -> JsonDescriber.getInstance(JSON + "[]"));
+        assertTrailingContentFails(
+                () -> ids(JsonDescriber.getInstance(new StringReader(JSON + "{}"))));
+    }
+
+    private static void assertTrailingContentFails(final Runnable load) {
+        try {
+            load.run();
+            fail("Expected exception");
+        } catch (DecisionFlowException e) {
+            assertThat(e.getMessage(),
+                    equalTo("Could not deserialize json: nothing expected after the array."));
+        }
+    }
+
+    private static String ids(final DecisionFlowDescriber describer) {
+        final List<String> ids = new ArrayList<>();
+        describer.getElements(element -> ids.add(element.getId()));
+        return ids.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.describers.AbstractXMIDescriber.PapyrusException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StreamingPapyrusTest {
+
+    private static final String UML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<xmi:XMI xmi:version=\"20131001\" xmlns:xmi=\"http://www.omg.org/spec/XMI/20131001\""
+            + " xmlns:uml=\"http://www.eclipse.org/uml2/5.0.0/UML\">"
+            + "<uml:Model xmi:id=\"model\" name=\"duplicates\">"
+            + "<packagedElement xmi:type=\"uml:StateMachine\" xmi:id=\"flow\""
+            + " name=\"DecisionFlow\">"
+            + "<region xmi:type=\"uml:Region\" xmi:id=\"region\" name=\"Region1\">"
+            + "<transition xmi:type=\"uml:Transition\" xmi:id=\"t1\" name=\"same\""
+            + " source=\"init\" target=\"a\"/>"
+            + "<transition xmi:type=\"uml:Transition\" xmi:id=\"t2\" name=\"same\""
+            + " source=\"init\" target=\"b\"/>"
+            + "<subvertex xmi:type=\"uml:Pseudostate\" xmi:id=\"init\" name=\"Init\"/>"
+            + "<subvertex xmi:type=\"uml:State\" xmi:id=\"a\" name=\"a\"/>"
+            + "<subvertex xmi:type=\"uml:State\" xmi:id=\"b\" name=\"b\"/>"
+            + "</region></packagedElement></uml:Model></xmi:XMI>";
+
+    @Test
+    public void testDuplicateLabelledName() {
+        final Properties labels = new Properties();
+        labels.setProperty("same", "true");
+        try {
+            StreamingPapyrus.getInstance(
+                    new ByteArrayInputStream(UML.getBytes(StandardCharsets.UTF_8)), labels)
+                    .getElements(element -> { });
+            fail("Duplicate names should be rejected.");
+        } catch (PapyrusException e) {
+            assertThat(e.getMessage(), equalTo("Duplicate element name: same"));
+        }
+    }
+}
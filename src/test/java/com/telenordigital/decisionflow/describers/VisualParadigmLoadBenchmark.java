@@ -0,0 +1,119 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times describing the Visual Paradigm zoo example, and a synthetic model holding 100 copies
+ * of its state machine, with the DOM and the streaming describers. Not a unit test; run it
+ * with
+ *
+ *     mvn test-compile exec:java -Dexec.classpathScope=test \
+ *         -Dexec.mainClass=com.telenordigital.decisionflow.describers.VisualParadigmLoadBenchmark
+ */
+public final class VisualParadigmLoadBenchmark {
+
+    private static final Path ZOO = Paths.get("src/test/resources/visualparadigm/zoo.xmi");
+    private static final int COPIES = 100;
+    private static final int RUNS = 5;
+
+    private static final Pattern ID = Pattern.compile("xmi:id=\"([^\"]*)\"");
+    private static final Pattern QUOTED = Pattern.compile("\"([^\"]*)\"");
+
+    private VisualParadigmLoadBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Path synthetic = Files.createTempFile("zoo-x" + COPIES, ".xmi");
+        try {
+            writeSynthetic(synthetic);
+            run("zoo.xmi", ZOO);
+            run(String.format("zoo.xmi x%d", COPIES), synthetic);
+        } finally {
+            Files.delete(synthetic);
+        }
+    }
+
+    private static void run(final String title, final Path path) {
+        System.out.println(String.format("%s (%d kB)", title, path.toFile().length() / 1024));
+        time("VisualParadigm", p -> VisualParadigm.getInstance(p.toString()), path);
+        time("StreamingVisualParadigm", StreamingVisualParadigm::getInstance, path);
+    }
+
+    private static void time(
+            final String name,
+            final Function<Path, DecisionFlowDescriber> factory,
+            final Path path) {
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int i = 0; i < RUNS; i++) {
+            final AtomicInteger elements = new AtomicInteger();
+            final long start = System.nanoTime();
+            factory.apply(path).getElements(element -> elements.incrementAndGet());
+            best = Math.min(best, System.nanoTime() - start);
+            count = elements.get();
+        }
+        System.out.println(String.format(
+                "  %-24s %6d elements, best of %d: %6d ms", name, count, RUNS, best / 1000000));
+    }
+
+    /**
+     * Repeats the uml:Model element of the zoo example, with every xmi:id of the model and
+     * every reference to it suffixed with the number of the copy.
+     */
+    private static void writeSynthetic(final Path path) throws IOException {
+        final List<String> lines = Files.readAllLines(ZOO, StandardCharsets.UTF_8);
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("\t<uml:Model ")) {
+                first = i;
+            } else if (lines.get(i).startsWith("\t</uml:Model>")) {
+                last = i;
+            }
+        }
+        final StringBuilder model = new StringBuilder();
+        for (final String line : lines.subList(first, last + 1)) {
+            model.append(line).append('\n');
+        }
+        final Set<String> ids = new HashSet<>();
+        final Matcher idMatcher = ID.matcher(model);
+        while (idMatcher.find()) {
+            ids.add(idMatcher.group(1));
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (final String line : lines.subList(0, first)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            for (int copy = 0; copy < COPIES; copy++) {
+                final Matcher matcher = QUOTED.matcher(model);
+                final StringBuffer renamed = new StringBuffer();
+                while (matcher.find()) {
+                    final String value = matcher.group(1);
+                    final String replacement = ids.contains(value) ? value + "_" + copy : value;
+                    matcher.appendReplacement(
+                            renamed, Matcher.quoteReplacement("\"" + replacement + "\""));
+                }
+                matcher.appendTail(renamed);
+                writer.write(renamed.toString());
+            }
+            for (final String line : lines.subList(last + 1, lines.size())) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.telenordigital.decisionflow.describers;
+
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementDescriptor;
+import com.telenordigital.decisionflow.DecisionFlowDescriber.ElementType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class VisualParadigmTest {
+
+    private static final Map<String, ElementDescriptor> ZOO = new LinkedHashMap<>();
+
+    static {
+        VisualParadigm.getInstance("src/test/resources/visualparadigm/zoo.xmi")
+                .getElements(element -> ZOO.put(element.getId(), element));
+    }
+
+    @Test
+    public void testNodes() {
+        assertThat(ZOO.size(), equalTo(57));
+        assertNode("jvIVRbqAUCQAYRWi", ElementType.INITIAL, "Init");
+        assertNode("chmVRbqAUCQAYRXF", ElementType.SWITCH, "environment");
+        assertNode("0xb9RbqAUCQAYRgq", ElementType.RANDOM_SWITCH, null);
+        assertNode("PUE9RbqAUCQAYRfV", ElementType.TARGET, "getAnimal(\"ELEPHANT\")");
+    }
+
+    @Test
+    public void testArrows() {
+        assertArrow("RrOVRbqAUCQAYRXJ", "jvIVRbqAUCQAYRWi", "chmVRbqAUCQAYRXF", null);
+        assertArrow("mvJVRbqAUCQAYRXa", "chmVRbqAUCQAYRXF", "jDBVRbqAUCQAYRXW",
+                "getEnvironment(\"WATER\")");
+        assertArrow("FSKDRbqAUCQAYRha", "0xb9RbqAUCQAYRgq", "9diDRbqAUCQAYRhN", "50");
+        assertArrow("8.mTRbqAUCQAYRlf", "W7ITRbqAUCQAYRkw", "Q6STRbqAUCQAYRlM", null);
+
+        assertThat(ZOO.get("RrOVRbqAUCQAYRXJ").isDefault(), equalTo(true));
+        assertThat(ZOO.get("RrOVRbqAUCQAYRXJ").isObligatory(), equalTo(false));
+        assertThat(ZOO.get("mvJVRbqAUCQAYRXa").isDefault(), equalTo(false));
+        assertThat(ZOO.get("8.mTRbqAUCQAYRlf").isDefault(), equalTo(false));
+        assertThat(ZOO.get("8.mTRbqAUCQAYRlf").isObligatory(), equalTo(true));
+        ZOO.values().stream()
+                .filter(element -> element.getType() == ElementType.ARROW)
+                .forEach(arrow -> {
+                    assertThat(ZOO.containsKey(arrow.getSourceNodeId()), equalTo(true));
+                    assertThat(ZOO.containsKey(arrow.getDestinationNodeId()), equalTo(true));
+                });
+    }
+
+    @Test
+    public void testStereotypeValues() {
+        final Map<String, Object> elephant = new HashMap<>();
+        elephant.put("trunkCount", "1");
+        elephant.put("legCount", "4");
+        elephant.put("description", "Huge, dark and wrinkled, as opposed to an aspirin");
+        assertThat(ZOO.get("PUE9RbqAUCQAYRfV").getAttributes(), equalTo(elephant));
+
+        final Map<String, ?> gorilla = ZOO.get("AJvtRbqAUCQAYRdL").getAttributes();
+        assertThat(gorilla.get("legCount"), equalTo("2"));
+        assertThat(gorilla.containsKey("description"), equalTo(true));
+        assertThat(gorilla.get("description"), nullValue());
+
+        assertThat(ZOO.get("W9QjRbqAUCQAYRiz").getAttributes().get("description"),
+                equalTo("One of the most feared snakes"));
+        assertThat(ZOO.get("chmVRbqAUCQAYRXF").getAttributes(), nullValue());
+    }
+
+    @Test
+    public void testFirstOwnedMemberWithTheId() {
+        final Map<String, ElementDescriptor> elements = new HashMap<>();
+        VisualParadigm.getInstance("src/test/resources/visualparadigm/owned-members.xmi")
+                .getElements(element -> elements.put(element.getId(), element));
+        assertThat(elements.get("draw").getType(), equalTo(ElementType.RANDOM_SWITCH));
+        assertThat(elements.get("a").getAttributes().get("colour"), equalTo("green"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSubclassWrittenForTheFormerProcessStereotypes() {
+        final Map<String, ElementDescriptor> elements = new HashMap<>();
+        new AbstractXMIDescriber("src/test/resources/visualparadigm/owned-members.xmi") {
+            @Override
+            protected void processStereotypes(
+                    final Map<String, Map<String, Object>> attrMaps,
+                    final Map<String, List<String>> stereotypeMap) {
+                try {
+                    final Node applied = (Node) getXPath().evaluate(
+                            "//appliedStereotype", getInputSource(), XPathConstants.NODE);
+                    stereotypeMap.put(eval("../../@xmi:id", applied),
+                            Collections.singletonList("random"));
+                } catch (XPathExpressionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            protected Properties getLabels(final String umlFilePath) {
+                return new Properties();
+            }
+
+            @Override
+            protected Map<String, String> getNsMap() {
+                return VisualParadigm.namespaces();
+            }
+        }.getElements(element -> elements.put(element.getId(), element));
+        assertThat(elements.get("draw").getType(), equalTo(ElementType.RANDOM_SWITCH));
+    }
+
+    private static void assertNode(final String id, final ElementType type, final String name) {
+        final ElementDescriptor node = ZOO.get(id);
+        assertThat(node.getType(), equalTo(type));
+        assertThat(node.getName(), equalTo(name));
+        assertThat(node.getSourceNodeId(), nullValue());
+        assertThat(node.getDestinationNodeId(), nullValue());
+    }
+
+    private static void assertArrow(
+            final String id,
+            final String source,
+            final String destination,
+            final String expression) {
+        final ElementDescriptor arrow = ZOO.get(id);
+        assertThat(arrow.getType(), equalTo(ElementType.ARROW));
+        assertThat(arrow.getSourceNodeId(), equalTo(source));
+        assertThat(arrow.getDestinationNodeId(), equalTo(destination));
+        assertThat(arrow.getExpression(), equalTo(expression));
+    }
+}